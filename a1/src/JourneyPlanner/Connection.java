@@ -1,11 +1,13 @@
 package JourneyPlanner;
 
-import java.awt.*;
-
 public class Connection {
+    /** Time value for connections that have no timetable entry **/
+    public static final int NO_TIME = -1;
+
     private Stop start, end;
     private Trip parent;
-    private boolean isHighlighted;
+    // Seconds since midnight of the service day, may run past 24:00:00 as in GTFS
+    private int departureTime = NO_TIME, arrivalTime = NO_TIME;
 
     public Connection(Stop start, Stop end, Trip parent){
         this.start = start;
@@ -13,24 +15,46 @@ public class Connection {
         this.parent = parent;
     }
 
-    public void draw(Graphics g, Location origin, double scale) {
-        if (isHighlighted) {
-            g.setColor(Color.GREEN);
-        } else {
-            g.setColor(Color.CYAN);
-        }
-        double startX = start.getLocation().asPoint(origin, scale).x, startY = start.getLocation().asPoint(origin, scale).y;
-        double endX = end.getLocation().asPoint(origin, scale).x, endY = end.getLocation().asPoint(origin, scale).y;
+    public Stop getStart() {
+        return start;
+    }
 
-        g.drawLine((int) startX, (int) startY, (int) endX, (int) endY);
+    public Stop getEnd() {
+        return end;
     }
 
     public Trip getParent() {
         return parent;
     }
 
-    public void setHighlight(boolean isHighlighted) {
-        this.isHighlighted = isHighlighted;
-        start.setHighlight(true);
+    public void setTimes(int departureTime, int arrivalTime) {
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+    }
+
+    public boolean isTimed() {
+        return departureTime != NO_TIME && arrivalTime != NO_TIME;
+    }
+
+    public int getDepartureTime() {
+        return departureTime;
+    }
+
+    public int getArrivalTime() {
+        return arrivalTime;
+    }
+
+    /**
+     * Parses a GTFS style HH:MM:SS time (hours may exceed 23) into seconds since midnight
+     */
+    public static int parseTime(String time) {
+        String[] parts = time.trim().split(":");
+        if (parts.length != 3) throw new NumberFormatException("Invalid time " + time);
+
+        return Integer.parseInt(parts[0]) * 3600 + Integer.parseInt(parts[1]) * 60 + Integer.parseInt(parts[2]);
+    }
+
+    public static String formatTime(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
     }
 }
@@ -0,0 +1,219 @@
+package JourneyPlanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Earliest arrival routing over the timetable using the Connection Scan Algorithm.
+ *
+ * Every timed connection is put in one array sorted by departure time, and a query is a single forward
+ * pass over that array starting at the requested departure time: a connection can be used if its trip
+ * has already been boarded or if its departure stop has been reached in time. The pass stops as soon as
+ * connections depart after the best known arrival at the target. The per-connection fields are copied
+ * into parallel int arrays so the scan only reads primitives.
+ *
+ * Walking transfers are taken from the precomputed footpaths: whenever a ride reaches a stop earlier than
+ * before, the stops a short walk away are relaxed too. Ride and overall arrival times are kept apart since
+ * footpaths aren't transitively closed, so one walk is never chained onto another.
+ *
+ * Isochrones use the same scan without a target, bounded instead by the latest arrival of interest, so
+ * the work is proportional to the connections departing within the window rather than the whole day.
+ */
+public class ConnectionScan {
+    // Arrival time of a stop that can't be reached
+    public static final int UNREACHED = Integer.MAX_VALUE;
+    private static final int NONE = -1;
+
+    private final Stop[] stops;
+    private final Footpaths footpaths;
+    private final Connection[] connections;
+    private final int[] departureStop, arrivalStop, departureTime, arrivalTime, trip;
+    private final int stopCount, tripCount;
+
+    /**
+     * Builds the scan array from every timed connection. Stops and trips must have their indices set to
+     * their positions in the given lists.
+     */
+    public ConnectionScan(List<Stop> stops, List<Trip> trips, Footpaths footpaths) {
+        this.stops = stops.toArray(new Stop[0]);
+        this.footpaths = footpaths;
+
+        List<Connection> timed = new ArrayList<Connection>();
+        for (Trip t : trips) {
+            for (Connection c : t.getConnections()) {
+                if (c.isTimed()) timed.add(c);
+            }
+        }
+        // The sort is stable, so zero length hops within a trip keep their sequence order
+        timed.sort(Comparator.comparingInt(Connection::getDepartureTime).thenComparingInt(Connection::getArrivalTime));
+
+        stopCount = stops.size();
+        tripCount = trips.size();
+        connections = timed.toArray(new Connection[0]);
+        departureStop = new int[connections.length];
+        arrivalStop = new int[connections.length];
+        departureTime = new int[connections.length];
+        arrivalTime = new int[connections.length];
+        trip = new int[connections.length];
+
+        for (int i = 0; i < connections.length; ++i) {
+            Connection c = connections[i];
+            departureStop[i] = c.getStart().getIndex();
+            arrivalStop[i] = c.getEnd().getIndex();
+            departureTime[i] = c.getDepartureTime();
+            arrivalTime[i] = c.getArrivalTime();
+            trip[i] = c.getParent().getIndex();
+        }
+    }
+
+    /**
+     * Returns the number of timed connections available for routing
+     */
+    public int size() {
+        return connections.length;
+    }
+
+    /**
+     * Finds the journey from one stop to another that arrives earliest, leaving no earlier than departAfter
+     * (seconds since midnight). The result is every connection ridden, in order, and is empty if the
+     * destination can't be reached or the stops are the same. Walks between stops are included as
+     * connections that have no parent trip.
+     */
+    public List<Connection> earliestArrival(Stop from, Stop to, int departAfter) {
+        int source = from.getIndex(), target = to.getIndex();
+        if (source == target) return new ArrayList<Connection>();
+
+        int[] arrival = new int[stopCount], inConnection = new int[stopCount], boardedAt = new int[tripCount];
+        int[] rideArrival = new int[stopCount], walkedFrom = new int[stopCount];
+        Arrays.fill(arrival, UNREACHED);
+        Arrays.fill(rideArrival, UNREACHED);
+        Arrays.fill(boardedAt, NONE);
+        Arrays.fill(walkedFrom, NONE);
+        arrival[source] = rideArrival[source] = departAfter;
+        walk(source, departAfter, arrival, walkedFrom);
+
+        for (int i = firstDepartingAt(departAfter); i < connections.length; ++i) {
+            if (departureTime[i] >= arrival[target]) break;
+
+            int t = trip[i];
+            if (boardedAt[t] == NONE && arrival[departureStop[i]] > departureTime[i]) continue;
+            if (boardedAt[t] == NONE) boardedAt[t] = i;
+
+            // Walks continue from the earliest ride into a stop, even if walking there was quicker still
+            int s = arrivalStop[i];
+            if (arrivalTime[i] < rideArrival[s]) {
+                rideArrival[s] = arrivalTime[i];
+                inConnection[s] = i;
+                if (arrivalTime[i] < arrival[s]) {
+                    arrival[s] = arrivalTime[i];
+                    walkedFrom[s] = NONE;
+                }
+                walk(s, arrivalTime[i], arrival, walkedFrom);
+            }
+        }
+
+        LinkedList<Connection> journey = new LinkedList<Connection>();
+        if (arrival[target] == UNREACHED) return journey;
+
+        // Walk back one leg at a time, either a footpath or a trip from where it was boarded to the alighting
+        // connection. A footpath always starts where a ride ended, so the leg before one is never another walk.
+        int stop = target;
+        boolean walked = false;
+        while (stop != source) {
+            if (!walked && walkedFrom[stop] != NONE) {
+                Connection walk = new Connection(stops[walkedFrom[stop]], stops[stop], null);
+                walk.setTimes(arrival[stop] - walkSeconds(walkedFrom[stop], stop), arrival[stop]);
+                journey.addFirst(walk);
+                stop = walkedFrom[stop];
+                walked = true;
+                continue;
+            }
+
+            int alight = inConnection[stop], board = boardedAt[trip[alight]];
+            List<Connection> tripConnections = connections[alight].getParent().getConnections();
+            int first = tripConnections.indexOf(connections[board]), last = tripConnections.indexOf(connections[alight]);
+
+            journey.addAll(0, tripConnections.subList(first, last + 1));
+            stop = departureStop[board];
+            walked = false;
+        }
+
+        return journey;
+    }
+
+    /**
+     * Finds the earliest arrival time (seconds since midnight) at every stop reachable from one stop within
+     * maxSeconds of leaving at departAfter, indexed by stop index. Stops that can't be reached in time are
+     * UNREACHED.
+     */
+    public int[] earliestArrivals(Stop from, int departAfter, int maxSeconds) {
+        int source = from.getIndex(), latest = departAfter + maxSeconds;
+
+        int[] arrival = new int[stopCount], rideArrival = new int[stopCount], walkedFrom = new int[stopCount];
+        boolean[] boarded = new boolean[tripCount];
+        Arrays.fill(arrival, UNREACHED);
+        Arrays.fill(rideArrival, UNREACHED);
+        arrival[source] = rideArrival[source] = departAfter;
+        walk(source, departAfter, arrival, walkedFrom);
+
+        for (int i = firstDepartingAt(departAfter); i < connections.length && departureTime[i] <= latest; ++i) {
+            int t = trip[i];
+            if (!boarded[t] && arrival[departureStop[i]] > departureTime[i]) continue;
+            boarded[t] = true;
+
+            int s = arrivalStop[i];
+            if (arrivalTime[i] < rideArrival[s] && arrivalTime[i] <= latest) {
+                rideArrival[s] = arrivalTime[i];
+                arrival[s] = Math.min(arrival[s], arrivalTime[i]);
+                walk(s, arrivalTime[i], arrival, walkedFrom);
+            }
+        }
+
+        // Walks out of stops reached near the end of the window can overshoot it
+        for (int s = 0; s < stopCount; ++s) {
+            if (arrival[s] > latest) arrival[s] = UNREACHED;
+        }
+        return arrival;
+    }
+
+    /** Helper Methods **/
+
+    /**
+     * Relaxes the footpaths out of a stop reached at time
+     */
+    private void walk(int stop, int time, int[] arrival, int[] walkedFrom) {
+        for (int f = footpaths.start(stop); f < footpaths.end(stop); ++f) {
+            int target = footpaths.target(f), walkArrival = time + footpaths.walkSeconds(f);
+            if (walkArrival < arrival[target]) {
+                arrival[target] = walkArrival;
+                walkedFrom[target] = stop;
+            }
+        }
+    }
+
+    /**
+     * Returns the walking time of the footpath between two stops, looked up when rebuilding a journey
+     */
+    private int walkSeconds(int from, int to) {
+        for (int f = footpaths.start(from); f < footpaths.end(from); ++f) {
+            if (footpaths.target(f) == to) return footpaths.walkSeconds(f);
+        }
+        return 0;
+    }
+
+    /**
+     * Binary search for the first connection departing at or after time
+     */
+    private int firstDepartingAt(int time) {
+        int lo = 0, hi = connections.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (departureTime[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
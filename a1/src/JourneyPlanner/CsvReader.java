@@ -0,0 +1,92 @@
+package JourneyPlanner;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a CSV file one row at a time, handling quoted fields and looking columns up by header name
+ */
+class CsvReader implements Closeable {
+    private final File file;
+    private final BufferedReader reader;
+    private final Map<String, Integer> columns = new HashMap<String, Integer>();
+    private final List<String> fields = new ArrayList<String>();
+    private final StringBuilder field = new StringBuilder();
+
+    CsvReader(File file) throws IOException {
+        this.file = file;
+        this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+
+        String header = reader.readLine();
+        if (header == null) throw new IOException(file.getName() + " is empty");
+        if (header.startsWith("\uFEFF")) header = header.substring(1); // Byte order mark
+
+        split(header);
+        for (int i = 0; i < fields.size(); ++i) { columns.put(fields.get(i).trim(), i); }
+    }
+
+    int column(String name) throws IOException {
+        int index = optionalColumn(name);
+        if (index < 0) throw new IOException(file.getName() + " has no " + name + " column");
+        return index;
+    }
+
+    int optionalColumn(String name) {
+        return columns.getOrDefault(name, -1);
+    }
+
+    boolean next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) return false;
+        } while (line.isEmpty());
+
+        split(line);
+        return true;
+    }
+
+    /**
+     * Returns the field in the current row, or an empty string if the row is short
+     */
+    String get(int column) {
+        return column < fields.size() ? fields.get(column) : "";
+    }
+
+    private void split(String line) {
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    ++i;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,86 @@
+package JourneyPlanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Walking transfers between stops within a set distance of each other, precomputed at load time.
+ *
+ * Each stop's neighbours come from a box query on the KD-tree trimmed to a circle, so the work is close
+ * to linear in the number of stops rather than all pairs, and the queries for different stops run in
+ * parallel. The result is stored in compressed sparse row form: the footpaths leaving the stop with index
+ * s are entries start(s) up to (but not including) end(s), each with a target stop index and a walking
+ * time in whole seconds (at least one, so walks never take zero time).
+ */
+public class Footpaths {
+    private final int[] offsets, targets, walkSeconds;
+
+    /**
+     * Finds every pair of stops within radius (in Location units, ie. kilometres) of each other, walking at
+     * walkingSpeed kilometres per hour. Stops must have their indices set to their list positions.
+     */
+    public Footpaths(List<Stop> stops, JourneyKDTree stopTree, double radius, double walkingSpeed) {
+        int[][] neighbours = new int[stops.size()][], times = new int[stops.size()][];
+
+        IntStream.range(0, stops.size()).parallel().forEach(i -> {
+            Location from = stops.get(i).getLocation();
+            List<Stop> nearby = new ArrayList<Stop>();
+            stopTree.findWithin(from.x - radius, from.y - radius, from.x + radius, from.y + radius, nearby);
+
+            int[] found = new int[nearby.size()], seconds = new int[nearby.size()];
+            int count = 0;
+            for (Stop s : nearby) {
+                double distance = from.distance(s.getLocation());
+                if (s.getIndex() == i || distance > radius) continue;
+
+                found[count] = s.getIndex();
+                seconds[count] = Math.max(1, (int) Math.ceil(distance / walkingSpeed * 3600));
+                ++count;
+            }
+            neighbours[i] = Arrays.copyOf(found, count);
+            times[i] = Arrays.copyOf(seconds, count);
+        });
+
+        offsets = new int[stops.size() + 1];
+        for (int i = 0; i < stops.size(); ++i) { offsets[i + 1] = offsets[i] + neighbours[i].length; }
+
+        targets = new int[offsets[stops.size()]];
+        walkSeconds = new int[targets.length];
+        for (int i = 0; i < stops.size(); ++i) {
+            System.arraycopy(neighbours[i], 0, targets, offsets[i], neighbours[i].length);
+            System.arraycopy(times[i], 0, walkSeconds, offsets[i], times[i].length);
+        }
+    }
+
+    /**
+     * Returns a set of footpaths with none in it, for when transfers are turned off
+     */
+    public static Footpaths none(List<Stop> stops) {
+        return new Footpaths(stops, new JourneyKDTree(), 0, 1);
+    }
+
+    /**
+     * Returns the total number of footpaths, counting each direction separately
+     */
+    public int size() {
+        return targets.length;
+    }
+
+    public int start(int stop) {
+        return offsets[stop];
+    }
+
+    public int end(int stop) {
+        return offsets[stop + 1];
+    }
+
+    public int target(int footpath) {
+        return targets[footpath];
+    }
+
+    public int walkSeconds(int footpath) {
+        return walkSeconds[footpath];
+    }
+}
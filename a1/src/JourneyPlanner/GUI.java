@@ -86,8 +86,11 @@ public abstract class GUI {
 	 *            the stops.txt file
 	 * @param tripFile
 	 *            the trips.txt file
+	 * @param stopTimesFile
+	 *            the stop_times.txt file, or null if the directory has no
+	 *            timetable
 	 */
-	protected abstract void onLoad(File stopFile, File tripFile);
+	protected abstract void onLoad(File stopFile, File tripFile, File stopTimesFile);
 
 	// here are some useful methods you'll need.
 
@@ -113,6 +116,15 @@ public abstract class GUI {
 		return drawing.getSize();
 	}
 
+	/**
+	 * Adds a component to the end of the top bar, after the search box.
+	 */
+	public void addControl(JComponent component) {
+		controls.add(Box.createRigidArea(new Dimension(15, 0)));
+		controls.add(component);
+		controls.revalidate();
+	}
+
 	/**
 	 * Redraws the window (including drawing pane). This is already done
 	 * whenever a button is pressed or the search box is updated, so you
@@ -137,6 +149,7 @@ public abstract class GUI {
 
 	private static final String STOP_FILENAME = "stops.txt";
 	private static final String TRIP_FILENAME = "trips.txt";
+	private static final String STOP_TIMES_FILENAME = "stop_times.txt";
 
 	/*
 	 * In Swing, everything is a component; buttons, graphics panes, tool tips,
@@ -186,7 +199,7 @@ public abstract class GUI {
 		JButton load = new JButton("Load");
 		load.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent ev) {
-				File stopFile = null, tripFile = null;
+				File stopFile = null, tripFile = null, stopTimesFile = null;
 
 				// set up the file chooser
 				fileChooser.setCurrentDirectory(new File("."));
@@ -205,17 +218,19 @@ public abstract class GUI {
 							stopFile = f;
 						} else if (f.getName().equals(TRIP_FILENAME)) {
 							tripFile = f;
+						} else if (f.getName().equals(STOP_TIMES_FILENAME)) {
+							stopTimesFile = f;
 						}
 					}
 
-					// check none of the files are missing, and call the load
-					// method in your code.
+					// check none of the required files are missing, and call
+					// the load method in your code. the timetable is optional.
 					if (stopFile == null || tripFile == null) {
 						JOptionPane.showMessageDialog(frame,
 								"Directory does not contain correct files",
 								"Error", JOptionPane.ERROR_MESSAGE);
 					} else {
-						onLoad(stopFile, tripFile);
+						onLoad(stopFile, tripFile, stopTimesFile);
 						redraw();
 					}
 				}
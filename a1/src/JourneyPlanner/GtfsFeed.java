@@ -0,0 +1,456 @@
+package JourneyPlanner;
+
+import java.io.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GTFS feed (stops, routes, trips, stop_times, calendar and calendar_dates) read in a single streaming
+ * pass per file.
+ *
+ * Rows are not kept as objects while reading: every field that is used goes into a primitive column, and
+ * repeated strings (names, ids) are interned into one pool and stored as int references. Only the id to
+ * index maps needed to resolve references between files are held as hash maps. A feed is read for one
+ * service date, and stop_times rows of trips that don't run on it are dropped as they are read, so only
+ * the running trips' rows take their five ints each. buildTrips then makes a Connection for every hop of
+ * those, which is what stays in memory once the feed is built.
+ *
+ * Feeds often only time their timing points and leave the stops between blank. buildTrips estimates those
+ * times from how far along the straight line path between the timed stops either side each stop is.
+ */
+public class GtfsFeed {
+    public static final String STOPS_FILENAME = "stops.txt", ROUTES_FILENAME = "routes.txt",
+            TRIPS_FILENAME = "trips.txt", STOP_TIMES_FILENAME = "stop_times.txt", CALENDAR_FILENAME = "calendar.txt",
+            CALENDAR_DATES_FILENAME = "calendar_dates.txt";
+
+    private static final String[] WEEKDAYS = { "monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday" };
+
+    // Interned strings, referred to by index from the columns below
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+
+    private final Map<String, Integer> stopIndex = new HashMap<String, Integer>();
+    private final IntColumn stopIds = new IntColumn(), stopNames = new IntColumn();
+    private final DoubleColumn stopLats = new DoubleColumn(), stopLons = new DoubleColumn();
+
+    private final Map<String, Integer> routeIndex = new HashMap<String, Integer>();
+    private final IntColumn routeNames = new IntColumn();
+
+    // Days are a bit mask with Monday as bit 0, dates are yyyymmdd
+    private final Map<String, Integer> serviceIndex = new HashMap<String, Integer>();
+    private final IntColumn serviceDays = new IntColumn(), serviceStarts = new IntColumn(), serviceEnds = new IntColumn();
+    // Days added to (true) or removed from (false) a service by calendar_dates, keyed by service << 32 | date
+    private final Map<Long, Boolean> serviceExceptions = new HashMap<Long, Boolean>();
+
+    private final Map<String, Integer> tripIndex = new HashMap<String, Integer>();
+    private final IntColumn tripIds = new IntColumn(), tripRoutes = new IntColumn(), tripServices = new IntColumn();
+
+    private final IntColumn stopTimeTrips = new IntColumn(), stopTimeStops = new IntColumn(),
+            stopTimeSequences = new IntColumn(), arrivals = new IntColumn(), departures = new IntColumn();
+
+    private int skippedRows;
+
+    private GtfsFeed() {}
+
+    /**
+     * Returns true if the directory looks like a GTFS feed rather than the plain stop and trip files
+     */
+    public static boolean isFeed(File directory) {
+        return new File(directory, ROUTES_FILENAME).isFile() && new File(directory, STOP_TIMES_FILENAME).isFile();
+    }
+
+    /**
+     * Reads the feed, keeping stop times only for the trips that run on the date
+     */
+    public static GtfsFeed read(File directory, LocalDate date) throws IOException {
+        GtfsFeed feed = new GtfsFeed();
+        feed.readStops(new File(directory, STOPS_FILENAME));
+        feed.readRoutes(new File(directory, ROUTES_FILENAME));
+        feed.readServices(directory);
+        feed.readTrips(new File(directory, TRIPS_FILENAME));
+
+        boolean[] running = new boolean[feed.tripIds.size];
+        for (int t = 0; t < running.length; ++t) { running[t] = feed.runsOn(t, date); }
+        feed.readStopTimes(new File(directory, STOP_TIMES_FILENAME), running);
+        return feed;
+    }
+
+    /**
+     * Returns the given date if any service in the feed's calendar runs on it, otherwise the nearest date
+     * that some service does run on, or the given date if none ever do. Only the calendar files are read.
+     */
+    public static LocalDate defaultServiceDate(File directory, LocalDate date) throws IOException {
+        GtfsFeed feed = new GtfsFeed();
+        feed.readServices(directory);
+        return feed.nearestServiceDate(date);
+    }
+
+    public int stopCount() { return stopIds.size; }
+
+    public int tripCount() { return tripIds.size; }
+
+    public int stopTimeCount() { return stopTimeTrips.size; }
+
+    public int skippedRows() { return skippedRows; }
+
+    public String getRouteName(int trip) {
+        int route = tripRoutes.get(trip);
+        return route < 0 ? "" : strings.get(routeNames.get(route));
+    }
+
+    /**
+     * Returns true if the trip's service runs on the date. Trips without a calendar entry always run.
+     */
+    public boolean runsOn(int trip, LocalDate date) {
+        int service = tripServices.get(trip);
+        return service < 0 || serviceRunsOn(service, date);
+    }
+
+    /**
+     * Makes a Stop for every stop in the feed, with indices set to their list positions
+     */
+    public List<Stop> buildStops() {
+        List<Stop> stops = new ArrayList<Stop>(stopIds.size);
+        for (int i = 0; i < stopIds.size; ++i) {
+            Stop s = new Stop(strings.get(stopIds.get(i)), strings.get(stopNames.get(i)), stopLats.get(i), stopLons.get(i));
+            s.setIndex(i);
+            stops.add(s);
+        }
+        return stops;
+    }
+
+    /**
+     * Returns the date as a yyyymmdd number, as calendar.txt writes it
+     */
+    public static int dateNumber(LocalDate date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    /**
+     * Makes a Trip for every trip in the feed that runs on the date, which should be the date the feed was
+     * read for, linking its stop times in stop_sequence order into timed Connections between the given
+     * stops (as made by buildStops). Trips are indexed by their position in the returned list.
+     */
+    public List<Trip> buildTrips(List<Stop> stops, LocalDate date) {
+        // Bucket the stop time rows by trip, then order each trip's rows by sequence
+        int[] offsets = new int[tripIds.size + 1];
+        for (int row = 0; row < stopTimeTrips.size; ++row) { ++offsets[stopTimeTrips.get(row) + 1]; }
+        for (int t = 0; t < tripIds.size; ++t) { offsets[t + 1] += offsets[t]; }
+
+        int[] order = new int[stopTimeTrips.size], cursor = Arrays.copyOf(offsets, tripIds.size);
+        for (int row = 0; row < stopTimeTrips.size; ++row) { order[cursor[stopTimeTrips.get(row)]++] = row; }
+
+        List<Trip> trips = new ArrayList<Trip>();
+        int[] arrive = new int[16], depart = new int[16];
+        for (int t = 0; t < tripIds.size; ++t) {
+            if (!runsOn(t, date)) continue;
+            int length = offsets[t + 1] - offsets[t];
+            sortBySequence(order, offsets[t], offsets[t + 1]);
+            if (length > arrive.length) {
+                arrive = new int[length];
+                depart = new int[length];
+            }
+            interpolateTimes(stops, order, offsets[t], length, arrive, depart);
+
+            Trip trip = new Trip(strings.get(tripIds.get(t)));
+            trip.setIndex(trips.size());
+            for (int i = 1; i < length; ++i) {
+                int from = order[offsets[t] + i - 1], to = order[offsets[t] + i];
+                Stop start = stops.get(stopTimeStops.get(from)), end = stops.get(stopTimeStops.get(to));
+
+                Connection c = new Connection(start, end, trip);
+                if (depart[i - 1] != Connection.NO_TIME && arrive[i] != Connection.NO_TIME) {
+                    c.setTimes(depart[i - 1], arrive[i]);
+                }
+                start.addOutgoingConnection(c);
+                end.addIncomingConnection(c);
+                trip.addConnection(c);
+            }
+            trips.add(trip);
+        }
+        return trips;
+    }
+
+    /** Helper Methods **/
+
+    private void readStops(File file) throws IOException {
+        try (CsvReader csv = new CsvReader(file)) {
+            int id = csv.column("stop_id"), name = csv.column("stop_name"), lat = csv.column("stop_lat"), lon = csv.column("stop_lon");
+
+            while (csv.next()) {
+                try {
+                    double latitude = Double.parseDouble(csv.get(lat)), longitude = Double.parseDouble(csv.get(lon));
+                    stopIndex.put(csv.get(id), stopIds.size);
+                    stopIds.add(intern(csv.get(id)));
+                    stopNames.add(intern(csv.get(name)));
+                    stopLats.add(latitude);
+                    stopLons.add(longitude);
+                } catch (NumberFormatException e) {
+                    ++skippedRows; // Stops without a position can't be drawn or routed through
+                }
+            }
+        }
+    }
+
+    private void readRoutes(File file) throws IOException {
+        try (CsvReader csv = new CsvReader(file)) {
+            int id = csv.column("route_id"), shortName = csv.optionalColumn("route_short_name"),
+                    longName = csv.optionalColumn("route_long_name");
+
+            while (csv.next()) {
+                String name = shortName >= 0 && !csv.get(shortName).isEmpty() ? csv.get(shortName)
+                        : longName >= 0 ? csv.get(longName) : csv.get(id);
+                routeIndex.put(csv.get(id), routeNames.size);
+                routeNames.add(intern(name));
+            }
+        }
+    }
+
+    private void readServices(File directory) throws IOException {
+        File calendar = new File(directory, CALENDAR_FILENAME), calendarDates = new File(directory, CALENDAR_DATES_FILENAME);
+        if (calendar.isFile()) readCalendar(calendar);
+        if (calendarDates.isFile()) readCalendarDates(calendarDates);
+    }
+
+    private void readCalendar(File file) throws IOException {
+        try (CsvReader csv = new CsvReader(file)) {
+            int id = csv.column("service_id"), start = csv.column("start_date"), end = csv.column("end_date");
+            int[] days = new int[WEEKDAYS.length];
+            for (int d = 0; d < days.length; ++d) { days[d] = csv.column(WEEKDAYS[d]); }
+
+            while (csv.next()) {
+                try {
+                    int mask = 0;
+                    for (int d = 0; d < days.length; ++d) {
+                        if ("1".equals(csv.get(days[d]))) mask |= 1 << d;
+                    }
+                    int startDate = Integer.parseInt(csv.get(start)), endDate = Integer.parseInt(csv.get(end));
+
+                    serviceIndex.put(csv.get(id), serviceDays.size);
+                    serviceDays.add(mask);
+                    serviceStarts.add(startDate);
+                    serviceEnds.add(endDate);
+                } catch (NumberFormatException e) {
+                    ++skippedRows;
+                }
+            }
+        }
+    }
+
+    private void readCalendarDates(File file) throws IOException {
+        try (CsvReader csv = new CsvReader(file)) {
+            int id = csv.column("service_id"), date = csv.column("date"), type = csv.column("exception_type");
+
+            while (csv.next()) {
+                try {
+                    int day = Integer.parseInt(csv.get(date)), exceptionType = Integer.parseInt(csv.get(type));
+                    if (exceptionType != 1 && exceptionType != 2) {
+                        ++skippedRows;
+                        continue;
+                    }
+
+                    // A service only listed here runs on its added days alone
+                    Integer service = serviceIndex.get(csv.get(id));
+                    if (service == null) {
+                        service = serviceDays.size;
+                        serviceIndex.put(csv.get(id), service);
+                        serviceDays.add(0);
+                        serviceStarts.add(0);
+                        serviceEnds.add(0);
+                    }
+                    serviceExceptions.put((long) service << 32 | day, exceptionType == 1);
+                } catch (NumberFormatException e) {
+                    ++skippedRows;
+                }
+            }
+        }
+    }
+
+    private boolean serviceRunsOn(int service, LocalDate date) {
+        int day = dateNumber(date);
+        Boolean exception = serviceExceptions.get((long) service << 32 | day);
+        if (exception != null) return exception;
+
+        return (serviceDays.get(service) & (1 << (date.getDayOfWeek().getValue() - 1))) != 0
+                && day >= serviceStarts.get(service) && day <= serviceEnds.get(service);
+    }
+
+    private boolean anyServiceRunsOn(LocalDate date) {
+        for (int service = 0; service < serviceDays.size; ++service) {
+            if (serviceRunsOn(service, date)) return true;
+        }
+        return false;
+    }
+
+    private LocalDate nearestServiceDate(LocalDate date) {
+        if (serviceDays.size == 0 || anyServiceRunsOn(date)) return date;
+
+        // The first and last days anything could run, from the calendar ranges and the added days
+        int first = Integer.MAX_VALUE, last = Integer.MIN_VALUE;
+        for (int service = 0; service < serviceDays.size; ++service) {
+            if (serviceDays.get(service) == 0) continue;
+            first = Math.min(first, serviceStarts.get(service));
+            last = Math.max(last, serviceEnds.get(service));
+        }
+        for (Map.Entry<Long, Boolean> exception : serviceExceptions.entrySet()) {
+            if (!exception.getValue()) continue;
+            first = Math.min(first, (int) exception.getKey().longValue());
+            last = Math.max(last, (int) exception.getKey().longValue());
+        }
+        if (first > last) return date;
+
+        try {
+            LocalDate from = LocalDate.of(first / 10000, first / 100 % 100, first % 100);
+            LocalDate to = LocalDate.of(last / 10000, last / 100 % 100, last % 100);
+            // Look outwards a day at a time, trying the later day first, until both ways leave the range
+            for (int days = 1; ; ++days) {
+                LocalDate later = date.plusDays(days), earlier = date.minusDays(days);
+                if (!later.isAfter(to) && !later.isBefore(from) && anyServiceRunsOn(later)) return later;
+                if (!earlier.isBefore(from) && !earlier.isAfter(to) && anyServiceRunsOn(earlier)) return earlier;
+                if (later.isAfter(to) && earlier.isBefore(from)) return date;
+            }
+        } catch (DateTimeException e) {
+            return date; // A calendar date that isn't a real day
+        }
+    }
+
+    private void readTrips(File file) throws IOException {
+        try (CsvReader csv = new CsvReader(file)) {
+            int id = csv.column("trip_id"), route = csv.column("route_id"), service = csv.column("service_id");
+
+            while (csv.next()) {
+                tripIndex.put(csv.get(id), tripIds.size);
+                tripIds.add(intern(csv.get(id)));
+                tripRoutes.add(routeIndex.getOrDefault(csv.get(route), -1));
+                tripServices.add(serviceIndex.getOrDefault(csv.get(service), -1));
+            }
+        }
+    }
+
+    private void readStopTimes(File file, boolean[] running) throws IOException {
+        try (CsvReader csv = new CsvReader(file)) {
+            int trip = csv.column("trip_id"), stop = csv.column("stop_id"), sequence = csv.column("stop_sequence"),
+                    arrival = csv.column("arrival_time"), departure = csv.column("departure_time");
+
+            while (csv.next()) {
+                Integer t = tripIndex.get(csv.get(trip)), s = stopIndex.get(csv.get(stop));
+                if (t == null || s == null) {
+                    ++skippedRows;
+                    continue;
+                }
+                if (!running[t]) continue;
+
+                try {
+                    int seq = Integer.parseInt(csv.get(sequence));
+                    // Times may be left blank between timing points, buildTrips fills those in
+                    int arrive = parseTime(csv.get(arrival)), depart = parseTime(csv.get(departure));
+
+                    stopTimeTrips.add(t);
+                    stopTimeStops.add(s);
+                    stopTimeSequences.add(seq);
+                    arrivals.add(arrive == Connection.NO_TIME ? depart : arrive);
+                    departures.add(depart == Connection.NO_TIME ? arrive : depart);
+                } catch (NumberFormatException e) {
+                    ++skippedRows;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a stop time, which may be left blank between timing points
+     */
+    static int parseTime(String time) {
+        return time.trim().isEmpty() ? Connection.NO_TIME : Connection.parseTime(time);
+    }
+
+    private int intern(String str) {
+        Integer index = stringIndex.get(str);
+        if (index == null) {
+            index = strings.size();
+            stringIndex.put(str, index);
+            strings.add(str);
+        }
+        return index;
+    }
+
+    /**
+     * Copies the times of a trip's rows, order[start, start + length), into arrive and depart, filling in
+     * blank times between two timed stops in proportion to the straight line distance covered. Stops before
+     * the first timed stop or after the last stay NO_TIME.
+     */
+    private void interpolateTimes(List<Stop> stops, int[] order, int start, int length, int[] arrive, int[] depart) {
+        int timed = -1; // The last stop with a time
+        for (int i = 0; i < length; ++i) {
+            arrive[i] = arrivals.get(order[start + i]);
+            depart[i] = departures.get(order[start + i]);
+            if (arrive[i] == Connection.NO_TIME) continue;
+
+            if (timed >= 0 && timed < i - 1) {
+                double total = 0;
+                for (int k = timed + 1; k <= i; ++k) { total += hopDistance(stops, order, start + k); }
+
+                double along = 0;
+                for (int k = timed + 1; k < i; ++k) {
+                    along += hopDistance(stops, order, start + k);
+                    // Stops in the same place are spread evenly instead
+                    double fraction = total > 0 ? along / total : (double) (k - timed) / (i - timed);
+                    arrive[k] = depart[k] = depart[timed] + (int) Math.round((arrive[i] - depart[timed]) * fraction);
+                }
+            }
+            timed = i;
+        }
+    }
+
+    /**
+     * Returns the straight line distance from the stop of the row before order[i] to the stop of order[i]
+     */
+    private double hopDistance(List<Stop> stops, int[] order, int i) {
+        Location from = stops.get(stopTimeStops.get(order[i - 1])).getLocation();
+        return from.distance(stops.get(stopTimeStops.get(order[i])).getLocation());
+    }
+
+    /**
+     * Insertion sort of order[from, to) by stop sequence, as trips are short and usually already in order
+     */
+    private void sortBySequence(int[] order, int from, int to) {
+        for (int i = from + 1; i < to; ++i) {
+            int row = order[i], seq = stopTimeSequences.get(row);
+            int j = i - 1;
+            while (j >= from && stopTimeSequences.get(order[j]) > seq) {
+                order[j + 1] = order[j];
+                --j;
+            }
+            order[j + 1] = row;
+        }
+    }
+
+    private static class IntColumn {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int i) { return values[i]; }
+    }
+
+    private static class DoubleColumn {
+        private double[] values = new double[16];
+        private int size;
+
+        void add(double value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        double get(int i) { return values[i]; }
+    }
+}
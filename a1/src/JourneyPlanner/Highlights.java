@@ -0,0 +1,70 @@
+package JourneyPlanner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The set of stops, trips and connections highlighted in a view.
+ *
+ * Membership of stops and trips is a bit per index, and every addition is also appended to a list, so
+ * clearing and drawing the highlights only touches what was highlighted rather than the whole network.
+ */
+public class Highlights {
+    private final BitSet stopBits = new BitSet(), tripBits = new BitSet();
+    private final List<Stop> stops = new ArrayList<Stop>();
+    private final List<Trip> trips = new ArrayList<Trip>();
+    // Single connections, such as journey legs, highlighted without the rest of their trip
+    private final List<Connection> connections = new ArrayList<Connection>();
+
+    public void addStop(Stop s) {
+        if (stopBits.get(s.getIndex())) return;
+        stopBits.set(s.getIndex());
+        stops.add(s);
+    }
+
+    public void addTrip(Trip t) {
+        if (tripBits.get(t.getIndex())) return;
+        tripBits.set(t.getIndex());
+        trips.add(t);
+    }
+
+    public void addConnection(Connection c) {
+        connections.add(c);
+    }
+
+    public boolean contains(Stop s) {
+        return stopBits.get(s.getIndex());
+    }
+
+    public boolean contains(Trip t) {
+        return tripBits.get(t.getIndex());
+    }
+
+    public List<Stop> getStops() {
+        return stops;
+    }
+
+    public List<Trip> getTrips() {
+        return trips;
+    }
+
+    public List<Connection> getConnections() {
+        return connections;
+    }
+
+    public boolean isEmpty() {
+        return stops.isEmpty() && trips.isEmpty() && connections.isEmpty();
+    }
+
+    /**
+     * Removes every highlight, in time proportional to the number highlighted
+     */
+    public void clear() {
+        for (Stop s : stops) { stopBits.clear(s.getIndex()); }
+        for (Trip t : trips) { tripBits.clear(t.getIndex()); }
+        stops.clear();
+        trips.clear();
+        connections.clear();
+    }
+}
@@ -0,0 +1,238 @@
+package JourneyPlanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A static 2D tree over stop locations, bulk loaded by median splits so it is always balanced.
+ *
+ * The tree is implicit: the stops of the subtree covering [lo, hi) live in that range of the arrays,
+ * with the splitting stop at the middle index and the axis alternating x, y, x, ... by depth. Coordinates
+ * are copied into flat double arrays so queries never touch the Stop or Location objects until they
+ * return a result.
+ */
+public class JourneyKDTree {
+    private final Stop[] stops;
+    private final double[] xs, ys;
+
+    public JourneyKDTree() {
+        this(new ArrayList<Stop>());
+    }
+
+    public JourneyKDTree(List<Stop> stopList) {
+        stops = stopList.toArray(new Stop[0]);
+        xs = new double[stops.length];
+        ys = new double[stops.length];
+
+        for (int i = 0; i < stops.length; ++i) {
+            xs[i] = stops[i].getLocation().x;
+            ys[i] = stops[i].getLocation().y;
+        }
+
+        build(0, stops.length, 0);
+    }
+
+    public int size() {
+        return stops.length;
+    }
+
+    /**
+     * Returns the stop closest to the location, or null if the tree is empty
+     */
+    public Stop findClosest(Location target) {
+        if (stops.length == 0) return null;
+
+        double[] best = { Double.MAX_VALUE };
+        int[] winner = { -1 };
+        nearest(0, stops.length, 0, target.x, target.y, best, winner);
+        return stops[winner[0]];
+    }
+
+    /**
+     * Returns up to k stops closest to the location, nearest first
+     */
+    public List<Stop> findClosest(Location target, int k) {
+        k = Math.min(k, stops.length);
+        List<Stop> result = new ArrayList<Stop>(Math.max(k, 0));
+        if (k <= 0) return result;
+
+        BoundedHeap heap = new BoundedHeap(k);
+        nearest(0, stops.length, 0, target.x, target.y, heap);
+
+        for (int i : heap.drainNearestFirst()) { result.add(stops[i]); }
+        return result;
+    }
+
+    /**
+     * Returns every stop inside the box spanned by the two corners (inclusive)
+     */
+    public List<Stop> findWithin(Location corner, Location opposite) {
+        List<Stop> result = new ArrayList<Stop>();
+        findWithin(Math.min(corner.x, opposite.x), Math.min(corner.y, opposite.y),
+                Math.max(corner.x, opposite.x), Math.max(corner.y, opposite.y), result);
+        return result;
+    }
+
+    /**
+     * Adds every stop inside [minX, maxX] x [minY, maxY] to result
+     */
+    public void findWithin(double minX, double minY, double maxX, double maxY, List<Stop> result) {
+        within(0, stops.length, 0, minX, minY, maxX, maxY, result);
+    }
+
+    /** Helper Methods **/
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo < 2) return;
+
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % 2 == 0 ? xs : ys);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect on the given axis, leaving the k-th smallest at k with smaller values before it
+     */
+    private void select(int lo, int hi, int k, double[] axis) {
+        while (lo < hi) {
+            double pivot = axis[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+
+            while (i <= j) {
+                while (axis[i] < pivot) ++i;
+                while (axis[j] > pivot) --j;
+                if (i <= j) swap(i++, j--);
+            }
+
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Stop s = stops[i]; stops[i] = stops[j]; stops[j] = s;
+        double x = xs[i]; xs[i] = xs[j]; xs[j] = x;
+        double y = ys[i]; ys[i] = ys[j]; ys[j] = y;
+    }
+
+    private void nearest(int lo, int hi, int depth, double x, double y, double[] best, int[] winner) {
+        if (lo >= hi) return;
+
+        int mid = (lo + hi) >>> 1;
+        double dx = xs[mid] - x, dy = ys[mid] - y;
+        double dist = dx * dx + dy * dy;
+        if (dist < best[0]) {
+            best[0] = dist;
+            winner[0] = mid;
+        }
+
+        double diff = depth % 2 == 0 ? x - xs[mid] : y - ys[mid];
+        if (diff < 0) {
+            nearest(lo, mid, depth + 1, x, y, best, winner);
+            if (diff * diff < best[0]) nearest(mid + 1, hi, depth + 1, x, y, best, winner);
+        } else {
+            nearest(mid + 1, hi, depth + 1, x, y, best, winner);
+            if (diff * diff < best[0]) nearest(lo, mid, depth + 1, x, y, best, winner);
+        }
+    }
+
+    private void nearest(int lo, int hi, int depth, double x, double y, BoundedHeap heap) {
+        if (lo >= hi) return;
+
+        int mid = (lo + hi) >>> 1;
+        double dx = xs[mid] - x, dy = ys[mid] - y;
+        heap.offer(mid, dx * dx + dy * dy);
+
+        double diff = depth % 2 == 0 ? x - xs[mid] : y - ys[mid];
+        if (diff < 0) {
+            nearest(lo, mid, depth + 1, x, y, heap);
+            if (diff * diff < heap.worst()) nearest(mid + 1, hi, depth + 1, x, y, heap);
+        } else {
+            nearest(mid + 1, hi, depth + 1, x, y, heap);
+            if (diff * diff < heap.worst()) nearest(lo, mid, depth + 1, x, y, heap);
+        }
+    }
+
+    private void within(int lo, int hi, int depth, double minX, double minY, double maxX, double maxY,
+                        List<Stop> result) {
+        if (lo >= hi) return;
+
+        int mid = (lo + hi) >>> 1;
+        double x = xs[mid], y = ys[mid];
+        if (x >= minX && x <= maxX && y >= minY && y <= maxY) result.add(stops[mid]);
+
+        double split = depth % 2 == 0 ? x : y;
+        double min = depth % 2 == 0 ? minX : minY, max = depth % 2 == 0 ? maxX : maxY;
+        if (min <= split) within(lo, mid, depth + 1, minX, minY, maxX, maxY, result);
+        if (max >= split) within(mid + 1, hi, depth + 1, minX, minY, maxX, maxY, result);
+    }
+
+    /**
+     * A max heap of the k best (index, squared distance) pairs seen so far, on primitive arrays
+     */
+    private static class BoundedHeap {
+        private final int[] indices;
+        private final double[] dists;
+        private int size;
+
+        BoundedHeap(int capacity) {
+            indices = new int[capacity];
+            dists = new double[capacity];
+        }
+
+        double worst() {
+            return size < indices.length ? Double.MAX_VALUE : dists[0];
+        }
+
+        void offer(int index, double dist) {
+            if (size < indices.length) {
+                indices[size] = index;
+                dists[size] = dist;
+                siftUp(size++);
+            } else if (dist < dists[0]) {
+                indices[0] = index;
+                dists[0] = dist;
+                siftDown(0);
+            }
+        }
+
+        int[] drainNearestFirst() {
+            int[] out = new int[size];
+            while (size > 0) {
+                out[size - 1] = indices[0];
+                --size;
+                indices[0] = indices[size];
+                dists[0] = dists[size];
+                siftDown(0);
+            }
+            return out;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (dists[parent] >= dists[i]) return;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1, right = left + 1, largest = i;
+                if (left < size && dists[left] > dists[largest]) largest = left;
+                if (right < size && dists[right] > dists[largest]) largest = right;
+                if (largest == i) return;
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int index = indices[i]; indices[i] = indices[j]; indices[j] = index;
+            double dist = dists[i]; dists[i] = dists[j]; dists[j] = dist;
+        }
+    }
+}
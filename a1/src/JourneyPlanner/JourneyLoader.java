@@ -0,0 +1,480 @@
+package JourneyPlanner;
+
+import java.awt.Dimension;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.JTextArea;
+import javax.swing.SwingWorker;
+
+/**
+ * Loads a network in the background, so the window stays responsive while the files are read.
+ *
+ * Loading runs as a pipeline on the load's own threads. The trip file is read from disk while the stop file
+ * is being parsed, and once the stops and trips exist the indexes that don't depend on each other (the trie,
+ * the stop to trip index and the KD-tree, followed by the footpaths and the renderer's first frame) are
+ * built at the same time, alongside writing the snapshot. Progress messages are appended to the text area
+ * as each stage finishes.
+ *
+ * A cancelled load installs nothing. Parsing stops at the next line, stages not yet started are skipped and
+ * the load's threads are interrupted, which abandons a snapshot being written; a stage already building an
+ * index runs to the end on its thread, but its result is dropped.
+ */
+public class JourneyLoader extends SwingWorker<Void, String> {
+    /** Variables **/
+    private final File stopFile, tripFile, stopTimesFile;
+    private final JTextArea output;
+    private final Dimension area;
+    private final Location origin;
+    private final double scale;
+    private final Consumer<JourneyLoader> whenLoaded;
+    // Only trips running on this date are loaded from a GTFS feed, chosen when loading starts if null
+    private LocalDate serviceDate;
+    // The service date a snapshot must have been built for, or 0 for plain files that have no calendar
+    private int snapshotDate;
+    // The sizes and modification times of the files being loaded, as a snapshot records them
+    private long[] sourceStamps;
+    // Runs the load's stages, shut down when the load ends so a cancelled one starts no more of them
+    private ExecutorService stages;
+
+    private List<Stop> stopList = new ArrayList<Stop>();
+    private List<Trip> tripList = new ArrayList<Trip>();
+    private Map<String, Stop> stopsById = new HashMap<String, Stop>();
+    private Map<String, Trip> tripsById = new HashMap<String, Trip>();
+    private JourneyTrie stopTrie;
+    private JourneyKDTree stopTree;
+    private ConnectionScan timetable;
+    private JourneyRenderer renderer;
+    private StopTripIndex stopTrips;
+
+    /**
+     * Prepares to load the files, warming the renderer up for a view of the given size, origin and scale.
+     * A GTFS feed only has the trips running on the service date loaded; if that is null it is today, or
+     * the nearest day to today that the feed runs anything. whenLoaded is called on the event thread once
+     * everything is built, and not at all if loading fails or is cancelled.
+     */
+    public JourneyLoader(File stopFile, File tripFile, File stopTimesFile, LocalDate serviceDate, JTextArea output,
+                         Dimension area, Location origin, double scale, Consumer<JourneyLoader> whenLoaded) {
+        this.stopFile = stopFile;
+        this.tripFile = tripFile;
+        this.stopTimesFile = stopTimesFile;
+        this.serviceDate = serviceDate;
+        this.output = output;
+        this.area = area;
+        this.origin = origin;
+        this.scale = scale;
+        this.whenLoaded = whenLoaded;
+    }
+
+    /**
+     * Returns the date trips were loaded for, or null if the files have no calendar
+     */
+    public LocalDate getServiceDate() {
+        return snapshotDate == 0 ? null : serviceDate;
+    }
+
+    public List<Stop> getStops() {
+        return stopList;
+    }
+
+    public List<Trip> getTrips() {
+        return tripList;
+    }
+
+    public JourneyTrie getStopTrie() {
+        return stopTrie;
+    }
+
+    public JourneyKDTree getStopTree() {
+        return stopTree;
+    }
+
+    public ConnectionScan getTimetable() {
+        return timetable;
+    }
+
+    public JourneyRenderer getRenderer() {
+        return renderer;
+    }
+
+    public StopTripIndex getStopTrips() {
+        return stopTrips;
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException {
+        stages = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), work -> {
+            Thread thread = new Thread(work, "JourneyLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            load();
+        } finally {
+            stages.shutdownNow();
+        }
+        return null;
+    }
+
+    @Override
+    protected void process(List<String> messages) {
+        for (String message : messages) { output.append(message); }
+    }
+
+    @Override
+    protected void done() {
+        try {
+            get();
+            whenLoaded.accept(this);
+        } catch (CancellationException e) {
+            output.append("Loading cancelled\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            output.append("Invalid files passed in! \n\tDetails:\n" + e.getCause() + "\n");
+        }
+    }
+
+    /** Helper Methods **/
+
+    private void load() throws IOException {
+        long startTime = System.nanoTime();
+        File directory = stopFile.getParentFile();
+        File snapshot = new File(directory, JourneySnapshot.FILENAME);
+        boolean isFeed = GtfsFeed.isFeed(directory);
+        if (isFeed && serviceDate == null) serviceDate = GtfsFeed.defaultServiceDate(directory, LocalDate.now());
+        snapshotDate = isFeed ? GtfsFeed.dateNumber(serviceDate) : 0;
+        sourceStamps = JourneySnapshot.stamp(stopFile, tripFile, stopTimesFile,
+                new File(directory, GtfsFeed.ROUTES_FILENAME), new File(directory, GtfsFeed.CALENDAR_FILENAME),
+                new File(directory, GtfsFeed.CALENDAR_DATES_FILENAME));
+        boolean fromSnapshot = JourneySnapshot.isFresh(snapshot, sourceStamps) && loadSnapshot(snapshot);
+
+        if (!fromSnapshot && isFeed) {
+            loadFeed(directory);
+        } else if (!fromSnapshot) {
+            // Read the trip file off disk while the stops are parsed
+            CompletableFuture<List<String>> tripLines = supplyStage(() -> readLines(tripFile));
+
+            parseStopFile(new BufferedReader(new FileReader(stopFile)));
+            parseTripFile(await(tripLines));
+            if (stopTimesFile != null) {
+                parseStopTimesFile(stopTimesFile);
+            }
+        }
+        checkCancelled();
+
+        populateDataStructures(fromSnapshot ? null : snapshot);
+        publish(String.format("Loaded in %.1fs\n", (System.nanoTime() - startTime) / 1e9));
+    }
+
+    /**
+     * Builds every index at once, writing the snapshot alongside if one is given
+     */
+    private void populateDataStructures(File snapshot) throws IOException {
+        long startTime = System.nanoTime();
+
+        CompletableFuture<Void> trie = runStage(() -> {
+            JourneyTrie built = new JourneyTrie();
+            for (Stop s : stopList) { built.add(s); }
+            stopTrie = built;
+        });
+        CompletableFuture<Void> index = runStage(() -> stopTrips = new StopTripIndex(stopList, tripList));
+        CompletableFuture<JourneyKDTree> tree = supplyStage(() -> new JourneyKDTree(stopList));
+        CompletableFuture<Void> routing = tree.thenCompose(kd -> runStage(() -> timetable = new ConnectionScan(
+                stopList, tripList, new Footpaths(stopList, kd, JourneyPlanner.WALK_RADIUS, JourneyPlanner.WALK_SPEED))));
+        CompletableFuture<Void> drawing = tree.thenCompose(kd -> runStage(() -> {
+            JourneyRenderer built = new JourneyRenderer(stopList, tripList, kd);
+            built.prepare(area, origin, scale);
+            renderer = built;
+        }));
+        CompletableFuture<Void> saved = snapshot == null ? CompletableFuture.completedFuture(null)
+                : runStage(() -> saveSnapshot(snapshot));
+
+        await(CompletableFuture.allOf(trie, index, routing, drawing, saved));
+        stopTree = tree.join();
+        publish(String.format("Built indexes in %.1fs\n", (System.nanoTime() - startTime) / 1e9));
+    }
+
+    /**
+     * Runs a stage on the load's threads, skipping it if the load is cancelled before it starts
+     */
+    private CompletableFuture<Void> runStage(Runnable stage) {
+        return CompletableFuture.runAsync(() -> {
+            checkCancelled();
+            stage.run();
+        }, stages);
+    }
+
+    private <T> CompletableFuture<T> supplyStage(Supplier<T> stage) {
+        return CompletableFuture.supplyAsync(() -> {
+            checkCancelled();
+            return stage.get();
+        }, stages);
+    }
+
+    /**
+     * Waits for a stage, stopping early if the load is cancelled and passing on any IOException it threw
+     */
+    private <T> T await(CompletableFuture<T> stage) throws IOException {
+        try {
+            return stage.get();
+        } catch (InterruptedException e) {
+            stage.cancel(true);
+            throw new CancellationException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) throw (CancellationException) e.getCause();
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    private void checkCancelled() {
+        if (isCancelled()) throw new CancellationException();
+    }
+
+    private static List<String> readLines(File file) {
+        try {
+            return Files.readAllLines(file.toPath(), Charset.defaultCharset());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replaces the stop and trip lists with the snapshot's, returning false if it couldn't be read
+     */
+    private boolean loadSnapshot(File snapshot) {
+        try {
+            long startTime = System.nanoTime();
+            JourneySnapshot loaded = JourneySnapshot.read(snapshot);
+            if (loaded.getServiceDate() != snapshotDate) {
+                publish(snapshot.getName() + " was built for another service date, parsing text files instead\n");
+                return false;
+            }
+
+            stopList = loaded.getStops();
+            tripList = loaded.getTrips();
+            for (Stop s : stopList) { stopsById.put(s.getID(), s); }
+            for (Trip t : tripList) { tripsById.put(t.getID(), t); }
+
+            publish(String.format("Loaded %d stops and %d trips from %s in %.1fms\n",
+                    stopList.size(), tripList.size(), snapshot.getName(), (System.nanoTime() - startTime) / 1e6));
+            return true;
+        } catch (IOException | RuntimeException | InternalError e) {
+            // A mapped file that is truncated while being read gives an InternalError rather than an IOException
+            publish("Could not read " + snapshot.getName() + ", parsing text files instead (" + e + ")\n");
+            stopList = new ArrayList<Stop>();
+            tripList = new ArrayList<Trip>();
+            stopsById = new HashMap<String, Stop>();
+            tripsById = new HashMap<String, Trip>();
+            return false;
+        }
+    }
+
+    private void saveSnapshot(File snapshot) {
+        if (isCancelled()) return;
+        try {
+            JourneySnapshot.write(snapshot, snapshotDate, sourceStamps, stopList, tripList);
+        } catch (InterruptedIOException e) {
+            // The load was cancelled part way through writing
+        } catch (IOException e) {
+            publish("Could not write " + snapshot.getName() + " (" + e + ")\n");
+        }
+    }
+
+    /**
+     * Reads a full GTFS feed from the directory in place of the plain stop and trip files
+     */
+    private void loadFeed(File directory) throws IOException {
+        long startTime = System.nanoTime();
+        GtfsFeed feed = GtfsFeed.read(directory, serviceDate);
+        checkCancelled();
+
+        stopList = feed.buildStops();
+        tripList = feed.buildTrips(stopList, serviceDate);
+        for (Stop s : stopList) { stopsById.put(s.getID(), s); }
+        for (Trip t : tripList) { tripsById.put(t.getID(), t); }
+
+        publish(String.format("Read GTFS feed with %d stops and %d trips, %d running on %s with %d stop times, in %.1fs\n",
+                feed.stopCount(), feed.tripCount(), tripList.size(), serviceDate, feed.stopTimeCount(),
+                (System.nanoTime() - startTime) / 1e9));
+        if (tripList.isEmpty() && feed.tripCount() > 0) {
+            publish("No trips run on " + serviceDate + ", pick another service date\n");
+        }
+        if (feed.skippedRows() > 0) {
+            publish("Skipped " + feed.skippedRows() + " rows that were invalid or referred to unknown stops or trips\n");
+        }
+    }
+
+    private void parseStopFile(BufferedReader stopReader) throws IOException {
+        String line = stopReader.readLine(); // Trow out first line
+        while((line = stopReader.readLine()) != null) {
+            checkCancelled();
+            String[] elements = line.split("\t");
+
+            if (elements.length != 4) {
+                publish("Invalid Stop, skipping line of length " + elements.length + " (" + line + ")\n");
+
+            } else {
+                // Each line = id, name, lat, lon
+                String id = elements[0];
+                String name = elements[1];
+                double latitude = Double.parseDouble(elements[2]);
+                double longitude = Double.parseDouble(elements[3]);
+
+                Stop s = new Stop(id,name,latitude,longitude);
+                s.setIndex(stopList.size());
+                stopList.add(s);
+                stopsById.put(id, s);
+            }
+        }
+        stopReader.close();
+        publish("Read " + stopList.size() + " stops\n");
+    }
+
+    private void parseTripFile(List<String> lines) {
+        long startTime = System.nanoTime();
+        int unknownStops = 0;
+
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) { // Throw out first line
+            checkCancelled();
+            String[] elements = line.split("\t");
+
+            if (elements.length < 3) {
+                publish("Invalid Trip, skipping line of length " + elements.length + " (" + line + ")\n");
+
+            } else {
+                // Each line = id, list of stops in the order they are visited
+                Trip t = new Trip(elements[0]);
+                Stop previous = null;
+
+                for (int i = 1; i < elements.length; ++i) {
+                    Stop current = stopsById.get(elements[i]);
+                    if (current == null) {
+                        ++unknownStops;
+                        continue;
+                    }
+
+                    if (previous != null) {
+                        Connection c = new Connection(previous, current, t);
+                        previous.addOutgoingConnection(c);
+                        current.addIncomingConnection(c);
+                        t.addConnection(c);
+                    }
+                    previous = current;
+                }
+                t.setIndex(tripList.size());
+                tripList.add(t);
+                tripsById.put(t.getID(), t);
+            }
+        }
+
+        int lineCount = Math.max(lines.size() - 1, 0);
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+        publish(String.format("Read %d trip lines in %.3fs (%.0f lines/s)\n", lineCount, seconds, lineCount / seconds));
+        if (unknownStops > 0) {
+            publish("Skipped " + unknownStops + " references to unknown stops\n");
+        }
+    }
+
+    /**
+     * Streams a GTFS style stop_times file and puts the times onto the connections of the matching trips.
+     * A trip's rows must visit the same stops, in stop_sequence order, as its line in the trip file.
+     */
+    private void parseStopTimesFile(File file) throws IOException {
+        if (file.length() == 0) return;
+
+        Map<String, List<StopTime>> rowsByTrip = new HashMap<String, List<StopTime>>();
+        int skippedRows = 0;
+        try (CsvReader csv = new CsvReader(file)) {
+            int tripCol = csv.optionalColumn("trip_id"), arrivalCol = csv.optionalColumn("arrival_time"),
+                    departureCol = csv.optionalColumn("departure_time"), stopCol = csv.optionalColumn("stop_id"),
+                    sequenceCol = csv.optionalColumn("stop_sequence");
+
+            if (tripCol < 0 || arrivalCol < 0 || departureCol < 0 || stopCol < 0 || sequenceCol < 0) {
+                publish("Stop times file is missing a required column, ignoring timetable\n");
+                return;
+            }
+
+            // Each row = one visit of a trip to a stop, grouped by trip before being applied. Only the
+            // columns read are required, trailing optional ones may be blank or missing.
+            while (csv.next()) {
+                checkCancelled();
+                String tripId = csv.get(tripCol), stopId = csv.get(stopCol);
+                if (tripId.isEmpty() || stopId.isEmpty()) {
+                    ++skippedRows;
+                    continue;
+                }
+
+                try {
+                    StopTime row = new StopTime(stopId, Integer.parseInt(csv.get(sequenceCol)),
+                            GtfsFeed.parseTime(csv.get(arrivalCol)), GtfsFeed.parseTime(csv.get(departureCol)));
+                    rowsByTrip.computeIfAbsent(tripId, k -> new ArrayList<StopTime>()).add(row);
+                } catch (NumberFormatException e) {
+                    ++skippedRows;
+                }
+            }
+        }
+
+        int timedTrips = 0, skippedTrips = 0;
+        for (Map.Entry<String, List<StopTime>> entry : rowsByTrip.entrySet()) {
+            Trip t = tripsById.get(entry.getKey());
+            List<StopTime> rows = entry.getValue();
+            rows.sort(Comparator.comparingInt(row -> row.sequence));
+
+            if (t == null || !matchesTrip(t, rows)) {
+                ++skippedTrips;
+                continue;
+            }
+
+            List<Connection> connections = t.getConnections();
+            for (int i = 0; i < connections.size(); ++i) {
+                connections.get(i).setTimes(rows.get(i).departure, rows.get(i + 1).arrival);
+            }
+            ++timedTrips;
+        }
+
+        publish("Timetable loaded for " + timedTrips + " trips"
+                + (skippedTrips > 0 ? ", " + skippedTrips + " did not match a trip\n" : "\n"));
+        if (skippedRows > 0) {
+            publish("Skipped " + skippedRows + " stop time rows that were short or could not be parsed\n");
+        }
+    }
+
+    private boolean matchesTrip(Trip t, List<StopTime> rows) {
+        List<Connection> connections = t.getConnections();
+        if (connections.isEmpty() || rows.size() != connections.size() + 1) return false;
+
+        for (int i = 0; i < connections.size(); ++i) {
+            if (!connections.get(i).getStart().getID().equals(rows.get(i).stop)) return false;
+        }
+        return connections.get(connections.size() - 1).getEnd().getID().equals(rows.get(rows.size() - 1).stop);
+    }
+
+    /**
+     * One row of a stop times file. A blank time takes the other time of the same row, and if both are
+     * blank the hops either side of the stop are left untimed.
+     */
+    private static class StopTime {
+        final String stop;
+        final int sequence, arrival, departure;
+
+        StopTime(String stop, int sequence, int arrival, int departure) {
+            this.stop = stop;
+            this.sequence = sequence;
+            this.arrival = arrival == Connection.NO_TIME ? departure : arrival;
+            this.departure = departure == Connection.NO_TIME ? arrival : departure;
+        }
+    }
+}
@@ -3,56 +3,166 @@ package JourneyPlanner;
 import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.io.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+import javax.swing.JSlider;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 public class JourneyPlanner extends GUI {
     /** Variables **/
     JourneyTrie stopTrie = new JourneyTrie();
-    JourneyQuad stopQuad = new JourneyQuad();
-    List<Stop> stopList = new LinkedList<Stop>();
-    List<Trip> tripList = new LinkedList<Trip>();
+    JourneyKDTree stopTree = new JourneyKDTree();
+    List<Stop> stopList = new ArrayList<Stop>();
+    List<Trip> tripList = new ArrayList<Trip>();
+    ConnectionScan timetable = new ConnectionScan(stopList, tripList, Footpaths.none(stopList));
+    JourneyRenderer renderer = new JourneyRenderer(stopList, tripList, stopTree);
+    StopTripIndex stopTrips = new StopTripIndex(stopList, tripList);
+    Highlights highlights = new Highlights();
+
+    // Stops picked from the right click menu to plan a journey between
+    private Stop journeyStart, journeyEnd;
+    // The load running in the background, if any, and the button to stop it
+    private JourneyLoader loader;
+    private JButton cancelButton = new JButton("Cancel");
+    // Stop the reachable area is shown from, recomputed whenever the departure time slider moves
+    private Stop isochroneStart;
+    private int isochroneMinutes = 30;
+    private JSlider departureSlider = new JSlider(0, MINUTES_PER_DAY - 1, LocalTime.now().toSecondOfDay() / 60);
+    private JLabel departureLabel = new JLabel();
+    // Day GTFS trips are loaded for, blank for today or the nearest day the feed runs, and the files to
+    // load again when it changes
+    private JTextField serviceDateField = new JTextField(8);
+    private File loadedStopFile, loadedTripFile, loadedStopTimesFile;
 
     public static int MOVE_FACTOR = 10, ZOOM_FACTOR = 2;
+    public static final int MAX_SEARCH_RESULTS = 50;
+    // Search text at least this long tolerates one typo, and twice this long two
+    public static final int CHARS_PER_TYPO = 4;
+    // Stops within this many kilometres can be walked between, at this many kilometres per hour
+    public static final double WALK_RADIUS = 0.4, WALK_SPEED = 4.5;
+    public static final int MINUTES_PER_DAY = 24 * 60;
     private Location origin = new Location(0,0);
     private double scale = 10;
 
+    public JourneyPlanner() {
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> {
+            if (loader != null) loader.cancel(true);
+            loader = null;
+            cancelButton.setEnabled(false);
+        });
+        addControl(cancelButton);
+
+        JPanel departure = new JPanel();
+        departure.add(new JLabel("Depart"));
+        departure.add(departureSlider);
+        departure.add(departureLabel);
+        departureLabel.setText(Connection.formatTime(departureSlider.getValue() * 60));
+        departureSlider.addChangeListener(e -> {
+            departureLabel.setText(Connection.formatTime(departureSlider.getValue() * 60));
+            if (isochroneStart != null) showIsochrone();
+        });
+        addControl(departure);
+
+        JPanel service = new JPanel();
+        service.add(new JLabel("Service date"));
+        service.add(serviceDateField);
+        serviceDateField.setToolTipText("yyyy-mm-dd, or blank for today or the nearest day the feed runs");
+        serviceDateField.addActionListener(e -> {
+            if (loadedStopFile != null) onLoad(loadedStopFile, loadedTripFile, loadedStopTimesFile);
+        });
+        addControl(service);
+    }
+
     /** GUI Methods **/
     @Override
     protected void redraw(Graphics g) {
-        if (stopList == null) return;
+        // GUI shows the window before these fields are set, so the first paint can come before them
+        if (renderer == null || highlights == null) return;
 
-        for (Stop s : stopList) {
-            s.draw(g, origin, scale);
-        }
+        renderer.draw(g, getDrawingAreaDimension(), origin, scale, highlights);
     }
 
     @Override
     protected void onClick(MouseEvent e) {
-//        clickLocation = Location.newFromPoint(new Point(e.getX(), e.getY()), origin, scale);
-//        Stop s = stopQuad.findClosest(clickLocation);
-        Stop s = findNearestStop(e.getX(), e.getY());
-        unhighlight();
-        s.setHighlight(true);
+        Stop s = stopTree.findClosest(Location.newFromPoint(e.getPoint(), origin, scale));
+        if (s == null) return;
+
+        isochroneStart = null;
+        highlights.clear();
+        highlights.addStop(s);
         getTextOutputArea().setText("Stop " + s.getName() + "\nTRIPS:\n");
-        for (Trip t : s.getTrips()) {
-            getTextOutputArea().append(t.getID() + "\n");
+        for (int i = 0; i < stopTrips.tripCount(s); ++i) {
+            getTextOutputArea().append(stopTrips.getTrip(s, i).getID() + "\n");
+        }
+
+        if (SwingUtilities.isRightMouseButton(e)) {
+            JPopupMenu context = new JPopupMenu();
+            JMenuItem fromItem = new JMenuItem("Journey from here"), toItem = new JMenuItem("Journey to here");
+            JMenuItem reachableItem = new JMenuItem("Reachable from here");
+
+            fromItem.addActionListener(e1 -> {
+                journeyStart = s;
+                planJourney();
+            });
+            toItem.addActionListener(e1 -> {
+                journeyEnd = s;
+                planJourney();
+            });
+
+            reachableItem.addActionListener(e1 -> {
+                String input = JOptionPane.showInputDialog("Reachable within how many minutes", isochroneMinutes);
+                if (input == null) return;
+                int minutes;
+                try {
+                    minutes = Integer.parseInt(input.trim());
+                } catch (NumberFormatException ex) {
+                    minutes = -1;
+                }
+                if (minutes < 0) {
+                    getTextOutputArea().setText("Invalid number of minutes " + input + "\n");
+                    return;
+                }
+                isochroneMinutes = minutes;
+                isochroneStart = s;
+                showIsochrone();
+            });
+
+            context.add(fromItem);
+            context.add(toItem);
+            context.add(reachableItem);
+            context.show(e.getComponent(), e.getX(), e.getY());
         }
     }
 
     @Override
     protected void onSearch() {
         String text = getSearchBox().getText();
-        unhighlight();
+        isochroneStart = null;
+        highlights.clear();
 
-        List<Stop> matchingStops = stopTrie.allThatBeginWith(text);
-        getTextOutputArea().setText(matchingStops.size() + " results found\n");
+        // Exact prefix matches rank first, then stops within the allowed typos
+        List<Stop> matchingStops = stopTrie.fuzzyTopK(text, allowedEdits(text), MAX_SEARCH_RESULTS);
+        // The count is of exact prefix matches only, the close matches are counted separately
+        int total = stopTrie.countThatBeginWith(text), shownExact = Math.min(total, matchingStops.size());
+        getTextOutputArea().setText(total + " stops begin with \"" + text + "\"" +
+                (total > shownExact ? ", showing the busiest " + shownExact : "") +
+                (matchingStops.size() > shownExact ? ", plus " + (matchingStops.size() - shownExact) + " close matches" : "") + "\n");
 
         for (Stop s : matchingStops) {
             getTextOutputArea().append(s.getName() + "\n");
-            s.setHighlight(true);
-            s.setTripHighlighted(true);
+            highlights.addStop(s);
+            highlightTrips(s);
         }
     }
 
@@ -96,109 +206,152 @@ public class JourneyPlanner extends GUI {
     }
 
     @Override
-    protected void onLoad(File stopFile, File tripFile) {
+    protected void onLoad(File stopFile, File tripFile, File stopTimesFile) {
+        // A new load replaces any still running, and the current network stays up until it's ready
+        String dateText = serviceDateField.getText().trim();
+        LocalDate serviceDate;
         try {
-            BufferedReader stopReader = new BufferedReader(new FileReader(stopFile)), tripReader = new BufferedReader(new FileReader(tripFile));
-
-            getTextOutputArea().setText("Loading files");
-
-            stopList = new LinkedList<Stop>();
-            tripList = new LinkedList<Trip>();
-
-            stopTrie = new JourneyTrie();
-            stopQuad = new JourneyQuad();
-            stopList = new ArrayList<Stop>();
-            tripList = new ArrayList<Trip>();
+            serviceDate = dateText.isEmpty() ? null : LocalDate.parse(dateText);
+        } catch (DateTimeParseException ex) {
+            getTextOutputArea().setText("Invalid service date " + dateText + ", expected yyyy-mm-dd\n");
+            return;
+        }
+        loadedStopFile = stopFile;
+        loadedTripFile = tripFile;
+        loadedStopTimesFile = stopTimesFile;
 
-            parseStopFile(stopReader);
-            parseTripFile(tripReader);
-            populateDataStructures();
+        if (loader != null) loader.cancel(true);
+        getTextOutputArea().setText("Loading files\n");
 
-        } catch (IOException e) {
-            getTextOutputArea().setText("Invalid files passed in! \n\tDetails:\n" + e);
-        }
+        loader = new JourneyLoader(stopFile, tripFile, stopTimesFile, serviceDate, getTextOutputArea(),
+                getDrawingAreaDimension(), origin, scale, this::install);
+        cancelButton.setEnabled(true);
+        loader.execute();
     }
 
     /** Helper Methods **/
 
-    private void unhighlight() {
-        for (Trip t : tripList) {
-            t.setHighlight(false);
-        }
+    private static int allowedEdits(String text) {
+        return Math.min(2, text.length() / CHARS_PER_TYPO);
+    }
 
-        for (Stop s : stopList) {
-            s.setHighlight(false);
-        }
+    /**
+     * Swaps in a network built by the loader, if it is still the latest load
+     */
+    private void install(JourneyLoader loaded) {
+        if (loaded != loader) return;
+        loader = null;
+        cancelButton.setEnabled(false);
+
+        stopList = loaded.getStops();
+        tripList = loaded.getTrips();
+        stopTrie = loaded.getStopTrie();
+        stopTree = loaded.getStopTree();
+        timetable = loaded.getTimetable();
+        renderer = loaded.getRenderer();
+        stopTrips = loaded.getStopTrips();
+        journeyStart = null;
+        journeyEnd = null;
+        isochroneStart = null;
+        highlights = new Highlights();
+        redraw();
     }
 
-    private Stop findNearestStop(int x, int y) {
-        Point click = new Point(x, y);
-        double minDist = Double.MAX_VALUE;
-        Stop winner = null;
+    private void highlightTrips(Stop s) {
+        for (int i = 0; i < stopTrips.tripCount(s); ++i) {
+            highlights.addTrip(stopTrips.getTrip(s, i));
+        }
+    }
 
-        for (Stop s : stopList) {
-            double dist = s.getLocation().asPoint(origin, scale).distance(click);
-            if (dist < minDist) {
-                minDist = dist;
-                winner = s;
-            }
+    /**
+     * Once both ends are picked, asks for a departure time and shows the earliest arriving journey
+     */
+    private void planJourney() {
+        if (journeyStart == null || journeyEnd == null) {
+            getTextOutputArea().append("\nPick the other end of the journey with a right click\n");
+            return;
+        }
+        if (timetable.size() == 0) {
+            getTextOutputArea().setText("No timetable loaded, add a stop_times.txt to the data directory\n");
+            return;
         }
 
-        return winner;
-    }
+        String chosen = Connection.formatTime(departureSlider.getValue() * 60);
+        String input = JOptionPane.showInputDialog("Depart after (hh:mm:ss)", chosen);
+        if (input == null) return;
 
-    private void parseStopFile(BufferedReader stopReader) throws IOException {
-        String line = stopReader.readLine(); // Trow out first line
-        while((line = stopReader.readLine()) != null) {
-            String[] elements = line.split("\t");
+        int departAfter;
+        try {
+            departAfter = Connection.parseTime(input);
+        } catch (NumberFormatException ex) {
+            getTextOutputArea().setText("Invalid departure time " + input + "\n");
+            return;
+        }
 
-            if (elements.length != 4) {
-                getTextOutputArea().append("Invalid Stop, skipping line of length " + elements.length + " (" + line + ")\n");
+        long startTime = System.nanoTime();
+        List<Connection> journey = timetable.earliestArrival(journeyStart, journeyEnd, departAfter);
+        double millis = (System.nanoTime() - startTime) / 1e6;
 
-            } else {
-                // Each line = id, name, lat, lon
-                String id = elements[0];
-                String name = elements[1];
-                double latitude = Double.parseDouble(elements[2]);
-                double longitude = Double.parseDouble(elements[3]);
+        highlights.clear();
+        getTextOutputArea().setText(journeyStart.getName() + " to " + journeyEnd.getName() + "\n");
+        if (journey.isEmpty()) {
+            getTextOutputArea().append("No journey found after " + Connection.formatTime(departAfter) + "\n");
+            return;
+        }
 
-                Stop s = new Stop(id,name,latitude,longitude);
-                stopList.add(s);
+        // One line per trip ridden
+        Connection boarded = journey.get(0);
+        for (int i = 0; i < journey.size(); ++i) {
+            Connection c = journey.get(i);
+            highlights.addConnection(c);
+            highlights.addStop(c.getStart());
+            highlights.addStop(c.getEnd());
+
+            if (i == journey.size() - 1 || journey.get(i + 1).getParent() != c.getParent()) {
+                String leg = c.getParent() == null ? "Walk" : c.getParent().getID();
+                getTextOutputArea().append(String.format("%s: %s %s -> %s %s\n", leg,
+                        Connection.formatTime(boarded.getDepartureTime()), boarded.getStart().getName(),
+                        Connection.formatTime(c.getArrivalTime()), c.getEnd().getName()));
+                if (i < journey.size() - 1) boarded = journey.get(i + 1);
             }
         }
+        getTextOutputArea().append(String.format("Found in %.2fms\n", millis));
+        redraw();
     }
 
-    private void parseTripFile(BufferedReader tripReader) throws IOException {
-        String line = tripReader.readLine(); // Throw out first line
-        while((line = tripReader.readLine()) != null) {
-            String[] elements = line.split("\t");
-
-            if (elements.length < 3) {
-                getTextOutputArea().append("Invalid Trip, skipping line of length " + elements.length + " (" + line + ")\n");
-
-            } else {
-                // Each line = id, list of stops
-                Trip t = new Trip(elements[0]);
-                List<Stop> stopsInTrip = stopList.stream().filter(x-> Arrays.asList(elements).contains(x.getID())).collect(Collectors.toList());
-
-                for(int i = 1; i < stopsInTrip.size(); ++i) {
-                    Stop incoming = stopsInTrip.get(i-1), outgoing = stopsInTrip.get(i);
-                    Connection c = new Connection(incoming, outgoing, t);
-                    incoming.addOutgoingConnection(c);
-                    outgoing.addIncomingConnection(c);
-                    t.addConnection(c);
-                }
-                tripList.add(t);
-            }
+    /**
+     * Highlights every stop reachable from the isochrone's start stop within its time limit, leaving at the
+     * time on the slider, and lists the first few in order of arrival
+     */
+    private void showIsochrone() {
+        if (timetable.size() == 0) {
+            getTextOutputArea().setText("No timetable loaded, add a stop_times.txt to the data directory\n");
+            return;
         }
-    }
 
-    private void populateDataStructures() {
+        int departAfter = departureSlider.getValue() * 60;
+        long startTime = System.nanoTime();
+        int[] arrivals = timetable.earliestArrivals(isochroneStart, departAfter, isochroneMinutes * 60);
+        double millis = (System.nanoTime() - startTime) / 1e6;
+
+        highlights.clear();
+        List<Stop> reached = new ArrayList<Stop>();
         for (Stop s : stopList) {
-            stopQuad.add(s);
-            stopTrie.add(s);
+            if (arrivals[s.getIndex()] == ConnectionScan.UNREACHED) continue;
+            reached.add(s);
+            highlights.addStop(s);
         }
-        System.out.println(stopQuad);
+        reached.sort(Comparator.comparingInt(s -> arrivals[s.getIndex()]));
+
+        getTextOutputArea().setText(String.format("%d stops reachable from %s within %d minutes of %s, found in %.2fms\n",
+                reached.size(), isochroneStart.getName(), isochroneMinutes, Connection.formatTime(departAfter), millis));
+        for (Stop s : reached.subList(0, Math.min(reached.size(), MAX_SEARCH_RESULTS))) {
+            getTextOutputArea().append(Connection.formatTime(arrivals[s.getIndex()]) + " " + s.getName() + "\n");
+        }
+        if (reached.size() > MAX_SEARCH_RESULTS) {
+            getTextOutputArea().append("...\n");
+        }
+        redraw();
     }
 
     public static void main(String[] args) {
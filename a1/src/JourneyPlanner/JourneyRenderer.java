@@ -0,0 +1,246 @@
+package JourneyPlanner;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws the network, only touching what is in view.
+ *
+ * Visible stops come from a box query on the KD-tree, widened by the length of the longest "short"
+ * connection so that any short connection crossing the screen is found through its start stop. The few
+ * connections longer than that are kept in their own list and checked individually. Each stop is
+ * transformed to screen coordinates at most once per frame, into int buffers indexed by stop index.
+ *
+ * The network in its base colours is drawn into an image that is reused while the view doesn't change,
+ * so clicks and searches only redraw the highlights on top of it, walking just the highlighted items.
+ *
+ * When zoomed out far enough that stops would overlap, the base layer draws the clusters of a StopClusters
+ * level instead, one marker with a count per grid cell and one line per linked pair of cells, so the work
+ * per frame depends on the screen size rather than the size of the network.
+ */
+public class JourneyRenderer {
+    private static final Color STOP_COLOUR = Color.BLUE, CONNECTION_COLOUR = Color.CYAN;
+    private static final Color HIGHLIGHT_COLOUR = Color.GREEN, COUNT_COLOUR = Color.WHITE;
+    // Fraction of connections short enough to be found through the box query
+    private static final double SHORT_CONNECTION_FRACTION = 0.99;
+
+    private final JourneyKDTree stopTree;
+    private final StopClusters clusters;
+    private final List<Connection> longConnections = new ArrayList<Connection>();
+    private final double shortConnectionLength;
+
+    // Per frame screen positions, valid for a stop when its stamp equals the current frame
+    private final int[] screenX, screenY, stamp;
+    private int frame;
+    private final List<Stop> visible = new ArrayList<Stop>();
+    private final List<Integer> visibleClusters = new ArrayList<Integer>();
+
+    private BufferedImage baseLayer;
+    private double cachedOriginX, cachedOriginY, cachedScale;
+
+    public JourneyRenderer(List<Stop> stops, List<Trip> trips, JourneyKDTree stopTree) {
+        this.stopTree = stopTree;
+        this.clusters = new StopClusters(stops, trips);
+        screenX = new int[stops.size()];
+        screenY = new int[stops.size()];
+        stamp = new int[stops.size()];
+
+        int connectionCount = 0;
+        for (Trip t : trips) { connectionCount += t.getConnections().size(); }
+
+        double[] lengths = new double[connectionCount];
+        int i = 0;
+        for (Trip t : trips) {
+            for (Connection c : t.getConnections()) { lengths[i++] = length(c); }
+        }
+        Arrays.sort(lengths);
+        shortConnectionLength = lengths.length == 0 ? 0 : lengths[(int) ((lengths.length - 1) * SHORT_CONNECTION_FRACTION)];
+
+        for (Trip t : trips) {
+            for (Connection c : t.getConnections()) {
+                if (length(c) > shortConnectionLength) longConnections.add(c);
+            }
+        }
+    }
+
+    public void draw(Graphics g, Dimension area, Location origin, double scale, Highlights highlights) {
+        prepare(area, origin, scale);
+        g.drawImage(baseLayer, 0, 0, null);
+        drawHighlights(g, area, origin, scale, highlights);
+    }
+
+    /**
+     * Renders the base layer for a view ahead of time, if it isn't already cached, so the first draw of
+     * that view only has to add the highlights
+     */
+    public void prepare(Dimension area, Location origin, double scale) {
+        ++frame;
+
+        if (baseLayer == null || baseLayer.getWidth() != Math.max(area.width, 1)
+                || baseLayer.getHeight() != Math.max(area.height, 1)
+                || cachedOriginX != origin.x || cachedOriginY != origin.y || cachedScale != scale) {
+            renderBaseLayer(area, origin, scale);
+        }
+    }
+
+    /** Helper Methods **/
+
+    private void findVisible(Dimension area, Location origin, double scale) {
+        // The stop oval hangs down and right of its location, so allow its size on the top and left
+        double pad = Stop.CIRCLE_DIAMETER / scale;
+        double margin = Math.max(shortConnectionLength, pad);
+
+        visible.clear();
+        stopTree.findWithin(origin.x - margin, origin.y - area.height / scale - margin,
+                origin.x + area.width / scale + margin, origin.y + margin, visible);
+    }
+
+    private void renderBaseLayer(Dimension area, Location origin, double scale) {
+        // Panning and zooming keep the view's size, so the image is only made again when the view is resized
+        int width = Math.max(area.width, 1), height = Math.max(area.height, 1);
+        boolean resized = baseLayer == null || baseLayer.getWidth() != width || baseLayer.getHeight() != height;
+        if (resized) baseLayer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        cachedOriginX = origin.x;
+        cachedOriginY = origin.y;
+        cachedScale = scale;
+
+        Graphics2D g = baseLayer.createGraphics();
+        if (!resized) {
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, width, height);
+            g.setComposite(AlphaComposite.SrcOver);
+        }
+        StopClusters.Level level = clusters.levelFor(scale);
+        if (level != null) {
+            drawClusters(g, area, origin, scale, level);
+            g.dispose();
+            return;
+        }
+
+        findVisible(area, origin, scale);
+
+        g.setColor(CONNECTION_COLOUR);
+        for (Stop s : visible) {
+            for (Connection c : s.outgoing) {
+                if (length(c) <= shortConnectionLength) drawConnection(g, area, origin, scale, c);
+            }
+        }
+        for (Connection c : longConnections) {
+            drawConnection(g, area, origin, scale, c);
+        }
+
+        g.setColor(STOP_COLOUR);
+        for (Stop s : visible) {
+            drawStop(g, area, origin, scale, s);
+        }
+        g.dispose();
+    }
+
+    /**
+     * Draws the links between clusters in view, then a marker for each sized by its number of stops
+     */
+    private void drawClusters(Graphics2D g, Dimension area, Location origin, double scale, StopClusters.Level level) {
+        // Markers are centred on their cluster, so allow half the largest one around the edges
+        double pad = StopClusters.CLUSTER_PIXELS / 2.0 / scale;
+        double minX = origin.x - pad, maxX = origin.x + area.width / scale + pad;
+        double minY = origin.y - area.height / scale - pad, maxY = origin.y + pad;
+
+        visibleClusters.clear();
+        level.findWithin(minX, minY, maxX, maxY, visibleClusters);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        g.setColor(CONNECTION_COLOUR);
+        for (int c : visibleClusters) {
+            for (int l = level.linkStart(c); l < level.linkEnd(c); ++l) {
+                int other = level.linkTarget(l);
+                // A link with both ends in view is drawn once, from its lower end
+                if (other < c && level.isWithin(other, minX, minY, maxX, maxY)) continue;
+                g.drawLine(clusterX(level, c, origin, scale), clusterY(level, c, origin, scale),
+                        clusterX(level, other, origin, scale), clusterY(level, other, origin, scale));
+            }
+        }
+
+        FontMetrics metrics = g.getFontMetrics();
+        for (int c : visibleClusters) {
+            int count = level.getCount(c), x = clusterX(level, c, origin, scale), y = clusterY(level, c, origin, scale);
+            int diameter = (int) Math.min(StopClusters.CLUSTER_PIXELS,
+                    Stop.CIRCLE_DIAMETER + 4 * Math.log(count) / Math.log(2));
+
+            g.setColor(STOP_COLOUR);
+            g.fillOval(x - diameter / 2, y - diameter / 2, diameter, diameter);
+            if (count > 1) {
+                String label = Integer.toString(count);
+                g.setColor(COUNT_COLOUR);
+                g.drawString(label, x - metrics.stringWidth(label) / 2, y + metrics.getAscent() / 2 - 1);
+            }
+        }
+    }
+
+    private static int clusterX(StopClusters.Level level, int cluster, Location origin, double scale) {
+        return (int) ((level.getX(cluster) - origin.x) * scale);
+    }
+
+    private static int clusterY(StopClusters.Level level, int cluster, Location origin, double scale) {
+        return (int) ((origin.y - level.getY(cluster)) * scale);
+    }
+
+    /**
+     * Draws the highlighted trips (their connections and the stops along them), connections and stops
+     */
+    private void drawHighlights(Graphics g, Dimension area, Location origin, double scale, Highlights highlights) {
+        if (highlights.isEmpty()) return;
+        g.setColor(HIGHLIGHT_COLOUR);
+
+        for (Trip t : highlights.getTrips()) {
+            for (Connection c : t.getConnections()) {
+                drawConnection(g, area, origin, scale, c);
+                drawStop(g, area, origin, scale, c.getStart());
+                drawStop(g, area, origin, scale, c.getEnd());
+            }
+        }
+        for (Connection c : highlights.getConnections()) {
+            drawConnection(g, area, origin, scale, c);
+        }
+        for (Stop s : highlights.getStops()) {
+            drawStop(g, area, origin, scale, s);
+        }
+    }
+
+    private void drawStop(Graphics g, Dimension area, Location origin, double scale, Stop s) {
+        int i = transform(s, origin, scale);
+        if (screenX[i] > -Stop.CIRCLE_DIAMETER && screenX[i] < area.width
+                && screenY[i] > -Stop.CIRCLE_DIAMETER && screenY[i] < area.height) {
+            g.fillOval(screenX[i], screenY[i], Stop.CIRCLE_DIAMETER, Stop.CIRCLE_DIAMETER);
+        }
+    }
+
+    private void drawConnection(Graphics g, Dimension area, Location origin, double scale, Connection c) {
+        int start = transform(c.getStart(), origin, scale), end = transform(c.getEnd(), origin, scale);
+        int x1 = screenX[start], y1 = screenY[start], x2 = screenX[end], y2 = screenY[end];
+
+        if (Math.max(x1, x2) < 0 || Math.min(x1, x2) > area.width
+                || Math.max(y1, y2) < 0 || Math.min(y1, y2) > area.height) return;
+
+        g.drawLine(x1, y1, x2, y2);
+    }
+
+    /**
+     * Makes sure the stop's screen position is in the buffers for this frame, returning its index
+     */
+    private int transform(Stop s, Location origin, double scale) {
+        int i = s.getIndex();
+        if (stamp[i] != frame) {
+            screenX[i] = (int) ((s.getLocation().x - origin.x) * scale);
+            screenY[i] = (int) ((origin.y - s.getLocation().y) * scale);
+            stamp[i] = frame;
+        }
+        return i;
+    }
+
+    private static double length(Connection c) {
+        return c.getStart().getLocation().distance(c.getEnd().getLocation());
+    }
+}
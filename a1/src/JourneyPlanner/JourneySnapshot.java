@@ -0,0 +1,252 @@
+package JourneyPlanner;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A versioned binary snapshot of the loaded stops, trips and timetable, so later launches can skip the
+ * text parsing.
+ *
+ * Layout (big endian, as written by DataOutputStream):
+ *   int magic, int version, int service date (yyyymmdd, or 0 if the trips weren't filtered by date)
+ *   int sourceCount, then per source file: long size, long last modified (-1 and 0 if it didn't exist)
+ *   int stringCount, then per string: int byteLength, UTF-8 bytes
+ *   int stopCount, double[stopCount] x, double[stopCount] y, int[stopCount] id, int[stopCount] name
+ *   int tripCount, int[tripCount] id, int[tripCount + 1] connection offsets
+ *   int connectionCount, int[] start stop, int[] end stop, int[] departure time, int[] arrival time
+ *
+ * Strings are stored once in a shared table and referred to by index, so repeated names are interned on
+ * load. Stops, trips and connections are referred to by their position in the file. Columns are read
+ * straight out of a memory mapped buffer with bulk gets.
+ *
+ * The snapshot is fresh while every source file has the size and modification time recorded for it, so
+ * adding, removing or replacing a file all make it stale. It is written to a temporary file and moved into
+ * place, so a snapshot another instance has mapped is never truncated underneath it.
+ */
+public class JourneySnapshot {
+    public static final String FILENAME = "journeys.snapshot";
+
+    private static final int MAGIC = 0x4A504E53; // "JPNS"
+    private static final int VERSION = 3;
+
+    private final int serviceDate;
+    private final List<Stop> stops;
+    private final List<Trip> trips;
+
+    private JourneySnapshot(int serviceDate, List<Stop> stops, List<Trip> trips) {
+        this.serviceDate = serviceDate;
+        this.stops = stops;
+        this.trips = trips;
+    }
+
+    public int getServiceDate() {
+        return serviceDate;
+    }
+
+    public List<Stop> getStops() {
+        return stops;
+    }
+
+    public List<Trip> getTrips() {
+        return trips;
+    }
+
+    /**
+     * Returns the size and modification time of each source file, as pairs, for isFresh and write. A null
+     * or missing file is recorded as size -1.
+     */
+    public static long[] stamp(File... sources) {
+        long[] stamps = new long[2 * sources.length];
+        for (int i = 0; i < sources.length; ++i) {
+            boolean exists = sources[i] != null && sources[i].isFile();
+            stamps[2 * i] = exists ? sources[i].length() : -1;
+            stamps[2 * i + 1] = exists ? sources[i].lastModified() : 0;
+        }
+        return stamps;
+    }
+
+    /**
+     * Returns true if the snapshot exists and was written from source files with the given stamps
+     */
+    public static boolean isFresh(File snapshot, long[] stamps) {
+        if (!snapshot.isFile()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            in.readInt(); // Service date, checked once loaded
+            if (in.readInt() != stamps.length / 2) return false;
+            for (long stamp : stamps) {
+                if (in.readLong() != stamp) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the stops and trips (with their indices set to their list positions) to the file, along with
+     * the service date the trips were chosen for and the stamps of the files they were read from. If the
+     * thread is interrupted while writing, the file is left as it was.
+     */
+    public static void write(File file, int serviceDate, long[] stamps, List<Stop> stops, List<Trip> trips)
+            throws IOException {
+        List<String> strings = new ArrayList<String>();
+        Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        int connectionCount = 0;
+
+        for (Stop s : stops) {
+            intern(s.getID(), strings, stringIndex);
+            intern(s.getName(), strings, stringIndex);
+        }
+        for (Trip t : trips) {
+            intern(t.getID(), strings, stringIndex);
+            connectionCount += t.getConnections().size();
+        }
+
+        File temporary = File.createTempFile(FILENAME, ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(serviceDate);
+            out.writeInt(stamps.length / 2);
+            for (long stamp : stamps) { out.writeLong(stamp); }
+
+            out.writeInt(strings.size());
+            for (String str : strings) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(stops.size());
+            for (Stop s : stops) { out.writeDouble(s.getLocation().x); }
+            for (Stop s : stops) { out.writeDouble(s.getLocation().y); }
+            for (Stop s : stops) { out.writeInt(stringIndex.get(s.getID())); }
+            for (Stop s : stops) { out.writeInt(stringIndex.get(s.getName())); }
+
+            out.writeInt(trips.size());
+            for (Trip t : trips) { out.writeInt(stringIndex.get(t.getID())); }
+            int offset = 0;
+            out.writeInt(offset);
+            for (Trip t : trips) {
+                offset += t.getConnections().size();
+                out.writeInt(offset);
+            }
+
+            out.writeInt(connectionCount);
+            for (Trip t : trips) { for (Connection c : t.getConnections()) out.writeInt(c.getStart().getIndex()); }
+            for (Trip t : trips) { for (Connection c : t.getConnections()) out.writeInt(c.getEnd().getIndex()); }
+            for (Trip t : trips) { for (Connection c : t.getConnections()) out.writeInt(c.getDepartureTime()); }
+            for (Trip t : trips) { for (Connection c : t.getConnections()) out.writeInt(c.getArrivalTime()); }
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Writing " + file + " was interrupted");
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Memory maps the snapshot and rebuilds the stops, trips and connections from it
+     */
+    public static JourneySnapshot read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC) throw new IOException(file + " is not a journey snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + ", expected " + VERSION);
+        int serviceDate = buffer.getInt();
+        int sourceCount = buffer.getInt();
+        buffer.position(buffer.position() + sourceCount * 2 * Long.BYTES); // Source stamps, checked by isFresh
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; ++i) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int stopCount = buffer.getInt();
+        double[] xs = readDoubles(buffer, stopCount), ys = readDoubles(buffer, stopCount);
+        int[] stopIds = readInts(buffer, stopCount), stopNames = readInts(buffer, stopCount);
+
+        List<Stop> stops = new ArrayList<Stop>(stopCount);
+        for (int i = 0; i < stopCount; ++i) {
+            Stop s = new Stop(strings[stopIds[i]], strings[stopNames[i]], new Location(xs[i], ys[i]));
+            s.setIndex(i);
+            stops.add(s);
+        }
+
+        int tripCount = buffer.getInt();
+        int[] tripIds = readInts(buffer, tripCount), offsets = readInts(buffer, tripCount + 1);
+
+        int connectionCount = buffer.getInt();
+        int[] starts = readInts(buffer, connectionCount), ends = readInts(buffer, connectionCount);
+        int[] departures = readInts(buffer, connectionCount), arrivals = readInts(buffer, connectionCount);
+
+        List<Trip> trips = new ArrayList<Trip>(tripCount);
+        for (int i = 0; i < tripCount; ++i) {
+            Trip t = new Trip(strings[tripIds[i]]);
+            t.setIndex(i);
+
+            for (int c = offsets[i]; c < offsets[i + 1]; ++c) {
+                Stop start = stops.get(starts[c]), end = stops.get(ends[c]);
+                Connection connection = new Connection(start, end, t);
+                connection.setTimes(departures[c], arrivals[c]);
+                start.addOutgoingConnection(connection);
+                end.addIncomingConnection(connection);
+                t.addConnection(connection);
+            }
+            trips.add(t);
+        }
+
+        return new JourneySnapshot(serviceDate, stops, trips);
+    }
+
+    /** Helper Methods **/
+
+    private static void intern(String str, List<String> strings, Map<String, Integer> stringIndex) {
+        if (!stringIndex.containsKey(str)) {
+            stringIndex.put(str, strings.size());
+            strings.add(str);
+        }
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        DoubleBuffer view = buffer.asDoubleBuffer();
+        view.get(values);
+        buffer.position(buffer.position() + count * Double.BYTES);
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        IntBuffer view = buffer.asIntBuffer();
+        view.get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+}
@@ -1,90 +1,333 @@
 package JourneyPlanner;
 
-//import com.sun.istack.internal.Nullable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.PriorityQueue;
 
+/**
+ * A path compressed (radix) trie over lower case stop names.
+ *
+ * Each node holds the label of the edge leading into it, and its children are kept sorted by their first
+ * character so a lookup is a binary search over a char[] rather than a scan. Every node also records how
+ * many stops sit below it and the best rank found below it, which lets topK walk the trie best first and
+ * stop as soon as it has k stops, instead of collecting every descendant.
+ *
+ * Typo tolerant search walks the trie with a Levenshtein automaton, simulated one dynamic programming row
+ * per character of the key. A branch is dropped as soon as every entry in its row exceeds the allowed
+ * edits, so only the few paths close to the query are explored.
+ */
 public class JourneyTrie {
-    private Node root = new Node((char) 0);
+    private Node root = new Node("", 0);
 
     public void add(Stop s) {
-
+        String key = s.getName().toLowerCase();
+        int rank = rankOf(s);
         Node currentNode = root;
-        for (char c : s.getName().toLowerCase().toCharArray()) {
-            if (currentNode.hasChild(c)) {
-                currentNode = currentNode.getChild(c);
+        currentNode.record(rank);
+
+        int i = 0;
+        while (i < key.length()) {
+            int index = currentNode.indexOf(key.charAt(i));
+
+            if (index < 0) {
+                // No child starts with this character, so the rest of the key becomes one leaf
+                Node leaf = new Node(key.substring(i), key.length());
+                currentNode.insertChild(-index - 1, leaf);
+                currentNode = leaf;
+                i = key.length();
             } else {
-                currentNode = currentNode.addChild(c);
+                Node child = currentNode.children[index];
+                int common = commonPrefix(child.label, key, i);
+                if (common < child.label.length()) {
+                    child = currentNode.split(index, common);
+                }
+                currentNode = child;
+                i += common;
             }
+            currentNode.record(rank);
         }
 
-        currentNode.addStop(s);
+        currentNode.addStop(s, rank);
     }
 
+    /**
+     * Returns every stop whose name begins with the prefix
+     */
     public List<Stop> allThatBeginWith(String prefix) {
-        prefix = prefix.toLowerCase();
-        Node currentNode = root;
+        Node start = find(prefix.toLowerCase());
+        if (start == null) return new ArrayList<Stop>();
 
-        for (char c : prefix.toCharArray()) {
-            if (currentNode.hasChild(c)) {
-                currentNode = currentNode.getChild(c);
-            } else {
-                return new LinkedList<Stop>();
+        List<Stop> matches = new ArrayList<Stop>(start.subtreeSize);
+        Deque<Node> toVisit = new ArrayDeque<Node>();
+        toVisit.push(start);
+
+        while (!toVisit.isEmpty()) {
+            Node n = toVisit.pop();
+            for (int i = 0; i < n.stopCount; ++i) { matches.add(n.stops[i]); }
+            for (int i = n.childCount - 1; i >= 0; --i) { toVisit.push(n.children[i]); }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Returns the number of stops whose name begins with the prefix, without visiting them
+     */
+    public int countThatBeginWith(String prefix) {
+        Node start = find(prefix.toLowerCase());
+        return start == null ? 0 : start.subtreeSize;
+    }
+
+    /**
+     * Returns at most k stops beginning with the prefix, busiest stops first (ties go to the shorter name).
+     * Subtrees are expanded in order of the best rank they contain, so only the branches that can still
+     * contribute to the answer are visited.
+     */
+    public List<Stop> topK(String prefix, int k) {
+        List<Stop> results = new ArrayList<Stop>(Math.max(k, 0));
+        Node start = find(prefix.toLowerCase());
+        if (start == null || k <= 0) return results;
+
+        PriorityQueue<Candidate> frontier = new PriorityQueue<Candidate>(Candidate.ORDER);
+        frontier.add(new Candidate(0, start.bestRank, start.depth, start, null));
+        return drain(frontier, k, results);
+    }
+
+    /**
+     * Returns at most k stops with a name beginning within maxEdits insertions, deletions or substitutions
+     * of the prefix. Closer matches come first, then busier stops, then shorter names.
+     */
+    public List<Stop> fuzzyTopK(String prefix, int maxEdits, int k) {
+        List<Stop> results = new ArrayList<Stop>(Math.max(k, 0));
+        if (k <= 0) return results;
+
+        String query = prefix.toLowerCase();
+        int[] row = new int[query.length() + 1];
+        for (int i = 0; i < row.length; ++i) { row[i] = i; }
+
+        PriorityQueue<Candidate> frontier = new PriorityQueue<Candidate>(Candidate.ORDER);
+        fuzzyWalk(root, row, query.length(), query, maxEdits, frontier, new ArrayList<int[]>());
+        return drain(frontier, k, results);
+    }
+
+    /** Helper Methods **/
+
+    /**
+     * Pops candidates best first, expanding nodes into their stops and children, until k stops are found
+     */
+    private List<Stop> drain(PriorityQueue<Candidate> frontier, int k, List<Stop> results) {
+        while (!frontier.isEmpty() && results.size() < k) {
+            Candidate c = frontier.poll();
+
+            if (c.stop != null) {
+                results.add(c.stop);
+                continue;
+            }
+
+            Node n = c.node;
+            for (int i = 0; i < n.stopCount; ++i) {
+                frontier.add(new Candidate(c.distance, n.ranks[i], n.depth, null, n.stops[i]));
+            }
+            for (int i = 0; i < n.childCount; ++i) {
+                Node child = n.children[i];
+                frontier.add(new Candidate(c.distance, child.bestRank, child.depth, child, null));
             }
         }
 
-        return getAllChildStops(currentNode);
+        return results;
+    }
+
+    /**
+     * Visits a node whose key has been matched into row, where best is the fewest edits from the query to
+     * any prefix of that key. Every stop within maxEdits is added to the frontier, either directly or as
+     * part of a whole subtree once going deeper can no longer bring the distance down.
+     */
+    private void fuzzyWalk(Node node, int[] row, int best, String query, int maxEdits,
+                           PriorityQueue<Candidate> frontier, List<int[]> rows) {
+        best = Math.min(best, row[query.length()]);
+        if (best <= maxEdits && minimum(row) >= best) {
+            // Longer keys can't match the query any better, so everything below counts at this distance
+            frontier.add(new Candidate(best, node.bestRank, node.depth, node, null));
+            return;
+        }
+
+        if (best <= maxEdits) {
+            for (int i = 0; i < node.stopCount; ++i) {
+                frontier.add(new Candidate(best, node.ranks[i], node.depth, null, node.stops[i]));
+            }
+        }
+
+        for (int c = 0; c < node.childCount; ++c) {
+            Node child = node.children[c];
+            int[] childRow = row;
+            int childBest = best;
+            boolean pruned = false;
+
+            for (int i = 0; i < child.label.length() && !pruned; ++i) {
+                int depth = child.depth - child.label.length() + i + 1;
+                while (rows.size() <= depth) { rows.add(new int[query.length() + 1]); }
+
+                int[] next = rows.get(depth);
+                step(childRow, next, child.label.charAt(i), query);
+                childRow = next;
+                childBest = Math.min(childBest, next[query.length()]);
+
+                // Stop walking the label once the row is either hopeless, or can't beat what's matched
+                pruned = minimum(next) > maxEdits || (childBest <= maxEdits && minimum(next) >= childBest);
+            }
+
+            if (!pruned) {
+                fuzzyWalk(child, childRow, childBest, query, maxEdits, frontier, rows);
+            } else if (childBest <= maxEdits) {
+                frontier.add(new Candidate(childBest, child.bestRank, child.depth, child, null));
+            }
+        }
     }
 
-    private List<Stop> getAllChildStops(Node currentNode) {
-        if (currentNode.getAllStops().size() > 0) {
-            return currentNode.getAllStops();
+    /**
+     * Computes the next edit distance row after the key is extended by c
+     */
+    private static void step(int[] previous, int[] next, char c, String query) {
+        next[0] = previous[0] + 1;
+        for (int j = 1; j < next.length; ++j) {
+            int substitute = previous[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+            next[j] = Math.min(substitute, Math.min(previous[j] + 1, next[j - 1] + 1));
         }
+    }
 
-        List<Stop> matches = new LinkedList<Stop>();
+    private static int minimum(int[] row) {
+        int min = Integer.MAX_VALUE;
+        for (int value : row) { min = Math.min(min, value); }
+        return min;
+    }
 
-        for(Node n : currentNode.getAllChildren()) {
-            matches.addAll(getAllChildStops(n));
+    /**
+     * Finds the highest node whose subtree holds exactly the keys starting with prefix, or null if none do
+     */
+    private Node find(String prefix) {
+        Node currentNode = root;
+        int i = 0;
+
+        while (i < prefix.length()) {
+            int index = currentNode.indexOf(prefix.charAt(i));
+            if (index < 0) return null;
+
+            Node child = currentNode.children[index];
+            int common = commonPrefix(child.label, prefix, i);
+
+            if (i + common == prefix.length()) return child; // Prefix ends on, or part way through, this edge
+            if (common < child.label.length()) return null;
+
+            currentNode = child;
+            i += common;
         }
 
-        return matches;
+        return currentNode;
+    }
+
+    private static int commonPrefix(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) { ++i; }
+        return i;
+    }
+
+    /**
+     * Busier stops rank higher, measured by the number of connections through them
+     */
+    private static int rankOf(Stop s) {
+        return s.incoming.size() + s.outgoing.size();
+    }
+
+    private static class Candidate {
+        static final Comparator<Candidate> ORDER = (a, b) ->
+                a.distance != b.distance ? Integer.compare(a.distance, b.distance)
+                        : a.rank != b.rank ? Integer.compare(b.rank, a.rank) : Integer.compare(a.length, b.length);
+
+        final int distance, rank, length;
+        final Node node;
+        final Stop stop;
+
+        Candidate(int distance, int rank, int length, Node node, Stop stop) {
+            this.distance = distance;
+            this.rank = rank;
+            this.length = length;
+            this.node = node;
+            this.stop = stop;
+        }
     }
 
     private static class Node {
-        private char data;
-        private List<Node> children;
-        private List<Stop> stops;
-
-        Node(char data){
-            this.data = data;
-            children = new ArrayList<>();
-            stops = new ArrayList<>();
+        private String label;
+        private int depth; // Length of the key at the end of this node's label
+
+        private char[] firstChars = new char[0];
+        private Node[] children = new Node[0];
+        private int childCount;
+
+        private Stop[] stops = new Stop[0];
+        private int[] ranks = new int[0];
+        private int stopCount;
+
+        private int subtreeSize, bestRank;
+
+        Node(String label, int depth) {
+            this.label = label;
+            this.depth = depth;
         }
 
-        public Node getChild(char data) {
-            return children.stream().filter( x -> x.data == data ).findFirst().orElse(null);
+        /**
+         * Returns the index of the child starting with c, or (-(insertion point) - 1) if there is none
+         */
+        int indexOf(char c) {
+            return Arrays.binarySearch(firstChars, 0, childCount, c);
         }
 
-        public Node addChild(char c) {
-            if (hasChild(c)) {
-                return getChild(c);
-            } else {
-                Node n = new Node(c);
-                children.add(n);
-                return n;
+        void insertChild(int index, Node n) {
+            if (childCount == children.length) {
+                int capacity = Math.max(2, childCount * 2);
+                children = Arrays.copyOf(children, capacity);
+                firstChars = Arrays.copyOf(firstChars, capacity);
             }
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            System.arraycopy(firstChars, index, firstChars, index + 1, childCount - index);
+            children[index] = n;
+            firstChars[index] = n.label.charAt(0);
+            ++childCount;
         }
 
-        public void addStop(Stop s) { stops.add(s); }
-
-//        @Nullable
-//        public Stop getStop(String id) { return stops.stream().filter( x -> x.getID().equals(id) ).findFirst().orElse(null); }
+        /**
+         * Splits the child at index after its first length characters, returning the new middle node
+         */
+        Node split(int index, int length) {
+            Node child = children[index];
+            Node middle = new Node(child.label.substring(0, length), child.depth - child.label.length() + length);
+            middle.subtreeSize = child.subtreeSize;
+            middle.bestRank = child.bestRank;
 
-        public boolean hasChild(char c) { return children.stream().anyMatch( x -> x.data == c ); }
+            child.label = child.label.substring(length);
+            middle.insertChild(0, child);
+            children[index] = middle;
+            return middle;
+        }
 
-        public List<Node> getAllChildren() { return children; }
+        void record(int rank) {
+            ++subtreeSize;
+            bestRank = Math.max(bestRank, rank);
+        }
 
-        public List<Stop> getAllStops() { return stops; }
+        void addStop(Stop s, int rank) {
+            if (stopCount == stops.length) {
+                stops = Arrays.copyOf(stops, Math.max(1, stopCount * 2));
+                ranks = Arrays.copyOf(ranks, stops.length);
+            }
+            stops[stopCount] = s;
+            ranks[stopCount] = rank;
+            ++stopCount;
+        }
     }
 }
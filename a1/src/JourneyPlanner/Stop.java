@@ -1,18 +1,14 @@
 package JourneyPlanner;
 
-import java.awt.*;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class Stop {
 
     private String ID, name;
     private Location location;
+    private int index; // Position of this stop in the planner's stop list
     List<Connection> incoming, outgoing;
-    private boolean isHighlighted;
     public static final int CIRCLE_DIAMETER = 10;
 
     public Stop(String id, String name, double lat, double lon) {
@@ -27,23 +23,6 @@ public class Stop {
         this.outgoing = new ArrayList<Connection>();
     }
 
-    public void draw(Graphics g, Location origin, double scale) {
-        Point loc = location.asPoint(origin, scale);
-
-        if (isHighlighted) {
-            g.setColor(Color.GREEN);
-
-        } else {
-            g.setColor(Color.BLUE);
-        }
-
-        g.fillOval( loc.x, loc.y, CIRCLE_DIAMETER, CIRCLE_DIAMETER);
-
-        for(Connection c : outgoing) {
-            c.draw(g, origin, scale);
-        }
-    }
-
     public void addIncomingConnection(Connection c) {
         incoming.add(c);
     }
@@ -62,16 +41,7 @@ public class Stop {
 
     public Location getLocation() { return location; }
 
-    public void setHighlight(boolean isHighlighted) {
-        this.isHighlighted = isHighlighted;
-    }
+    public int getIndex() { return index; }
 
-    public void setTripHighlighted(boolean isHighlighted) {
-        for(Trip t : getTrips()) { t.setHighlight(isHighlighted); }
-    }
-
-    public List<Trip> getTrips() {
-        return Stream.concat(incoming.stream(), outgoing.stream())
-                .map(c -> c.getParent()).distinct().collect(Collectors.toCollection(LinkedList::new));
-    }
+    public void setIndex(int index) { this.index = index; }
 }
@@ -0,0 +1,257 @@
+package JourneyPlanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stops grouped into a hierarchy of grids, one level per zoom step, for drawing the network when zoomed out.
+ *
+ * The finest grid has cells sized so there is about one stop per cell on average, and each coarser level
+ * doubles the cell size by merging 2x2 blocks of cells, until a single cell covers everything. Every
+ * non-empty cell is a cluster with a count of its stops and their centroid, and two clusters are linked
+ * when any connection runs between their stops. Clusters in a level are sorted by row then column, so the
+ * ones in view are found with a binary search per visible row.
+ */
+public class StopClusters {
+    // Smallest on screen cell size, in pixels, at which stops are drawn individually
+    public static final int CLUSTER_PIXELS = 40;
+
+    private final List<Level> levels = new ArrayList<Level>();
+    private final double minX, minY;
+
+    public StopClusters(List<Stop> stops, List<Trip> trips) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Stop s : stops) {
+            minX = Math.min(minX, s.getLocation().x);
+            minY = Math.min(minY, s.getLocation().y);
+            maxX = Math.max(maxX, s.getLocation().x);
+            maxY = Math.max(maxY, s.getLocation().y);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        if (stops.isEmpty()) return;
+
+        double area = Math.max(maxX - minX, 1e-3) * Math.max(maxY - minY, 1e-3);
+        double baseCellSize = Math.sqrt(area / stops.size());
+
+        // Finest level straight from the stops
+        long[] stopKeys = new long[stops.size()];
+        for (Stop s : stops) {
+            int cx = (int) ((s.getLocation().x - this.minX) / baseCellSize);
+            int cy = (int) ((s.getLocation().y - this.minY) / baseCellSize);
+            stopKeys[s.getIndex()] = key(cx, cy);
+        }
+        double[] xs = new double[stops.size()], ys = new double[stops.size()];
+        int[] counts = new int[stops.size()];
+        for (Stop s : stops) {
+            xs[s.getIndex()] = s.getLocation().x;
+            ys[s.getIndex()] = s.getLocation().y;
+            counts[s.getIndex()] = 1;
+        }
+
+        int[] stopCluster = new int[stops.size()];
+        Level level = new Level(baseCellSize, stopKeys, xs, ys, counts, stopCluster);
+
+        int[] pairs = new int[16];
+        int pairCount = 0;
+        for (Trip t : trips) {
+            for (Connection c : t.getConnections()) {
+                int a = stopCluster[c.getStart().getIndex()], b = stopCluster[c.getEnd().getIndex()];
+                if (a == b) continue;
+                if (pairCount * 2 == pairs.length) pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                pairs[pairCount * 2] = a;
+                pairs[pairCount * 2 + 1] = b;
+                ++pairCount;
+            }
+        }
+        level.link(pairs, pairCount);
+        levels.add(level);
+
+        // Each coarser level merges 2x2 blocks of the one below
+        while (level.size() > 1) {
+            long[] parentKeys = new long[level.size()];
+            for (int i = 0; i < level.size(); ++i) {
+                parentKeys[i] = key(cellX(level.keys[i]) >> 1, cellY(level.keys[i]) >> 1);
+            }
+            int[] parentOf = new int[level.size()];
+            Level parent = new Level(level.cellSize * 2, parentKeys, level.xs, level.ys, level.counts, parentOf);
+
+            pairCount = 0;
+            for (int i = 0; i < level.size(); ++i) {
+                for (int e = level.edgeOffsets[i]; e < level.edgeOffsets[i + 1]; ++e) {
+                    int a = parentOf[i], b = parentOf[level.edgeTargets[e]];
+                    if (a >= b) continue; // Both directions are stored, so keep one of them
+                    pairs[pairCount * 2] = a;
+                    pairs[pairCount * 2 + 1] = b;
+                    ++pairCount;
+                }
+            }
+            parent.link(pairs, pairCount);
+            levels.add(parent);
+            level = parent;
+        }
+    }
+
+    /**
+     * Returns the level to draw at the given scale (pixels per kilometre), or null if the view is zoomed in
+     * far enough to draw every stop
+     */
+    public Level levelFor(double scale) {
+        for (int i = 0; i < levels.size(); ++i) {
+            if (levels.get(i).cellSize * scale >= CLUSTER_PIXELS) return i == 0 ? null : levels.get(i);
+        }
+        return levels.isEmpty() ? null : levels.get(levels.size() - 1);
+    }
+
+    /** Helper Methods **/
+
+    private static long key(int cx, int cy) {
+        return ((long) cy << 32) | (cx & 0xFFFFFFFFL);
+    }
+
+    private static int cellX(long key) {
+        return (int) key;
+    }
+
+    private static int cellY(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * One grid level: clusters sorted by cell, with their centroids, stop counts and links as CSR arrays
+     */
+    public class Level {
+        private final long[] keys;
+        private final double[] xs, ys;
+        private final int[] counts;
+        private final double cellSize;
+        private final int lastColumn;
+        private int[] edgeOffsets, edgeTargets;
+
+        /**
+         * Groups the items with the given cell keys into clusters, writing each item's cluster into clusterOf
+         */
+        private Level(double cellSize, long[] itemKeys, double[] itemXs, double[] itemYs, int[] itemCounts,
+                      int[] clusterOf) {
+            this.cellSize = cellSize;
+
+            long[] sorted = itemKeys.clone();
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; ++i) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) sorted[unique++] = sorted[i];
+            }
+            keys = Arrays.copyOf(sorted, unique);
+            int maxColumn = 0;
+            for (long k : keys) { maxColumn = Math.max(maxColumn, cellX(k)); }
+            lastColumn = maxColumn;
+            xs = new double[unique];
+            ys = new double[unique];
+            counts = new int[unique];
+
+            for (int i = 0; i < itemKeys.length; ++i) {
+                int c = Arrays.binarySearch(keys, itemKeys[i]);
+                clusterOf[i] = c;
+                counts[c] += itemCounts[i];
+                xs[c] += itemXs[i] * itemCounts[i];
+                ys[c] += itemYs[i] * itemCounts[i];
+            }
+            for (int c = 0; c < unique; ++c) {
+                xs[c] /= counts[c];
+                ys[c] /= counts[c];
+            }
+        }
+
+        /**
+         * Builds the links from pairs of cluster indices, storing each distinct link in both directions
+         */
+        private void link(int[] pairs, int pairCount) {
+            long[] directed = new long[pairCount * 2];
+            for (int p = 0; p < pairCount; ++p) {
+                int a = pairs[p * 2], b = pairs[p * 2 + 1];
+                directed[p * 2] = ((long) a << 32) | b;
+                directed[p * 2 + 1] = ((long) b << 32) | a;
+            }
+            Arrays.sort(directed);
+
+            edgeOffsets = new int[size() + 1];
+            int[] targets = new int[directed.length];
+            int count = 0;
+            for (int i = 0; i < directed.length; ++i) {
+                if (i > 0 && directed[i] == directed[i - 1]) continue;
+                ++edgeOffsets[(int) (directed[i] >>> 32) + 1];
+                targets[count++] = (int) directed[i];
+            }
+            for (int c = 0; c < size(); ++c) { edgeOffsets[c + 1] += edgeOffsets[c]; }
+            edgeTargets = Arrays.copyOf(targets, count);
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public double getX(int cluster) {
+            return xs[cluster];
+        }
+
+        public double getY(int cluster) {
+            return ys[cluster];
+        }
+
+        public int getCount(int cluster) {
+            return counts[cluster];
+        }
+
+        public int linkStart(int cluster) {
+            return edgeOffsets[cluster];
+        }
+
+        public int linkEnd(int cluster) {
+            return edgeOffsets[cluster + 1];
+        }
+
+        public int linkTarget(int link) {
+            return edgeTargets[link];
+        }
+
+        /**
+         * Returns true if the cluster's cell touches the box, which is what findWithin reports
+         */
+        public boolean isWithin(int cluster, double minX, double minY, double maxX, double maxY) {
+            int cx = cellX(keys[cluster]), cy = cellY(keys[cluster]);
+            return cx >= column(minX) && cx <= column(maxX) && cy >= row(minY) && cy <= row(maxY);
+        }
+
+        /**
+         * Adds to result the index of every cluster whose cell touches the box, returning how many were added
+         */
+        public int findWithin(double minX, double minY, double maxX, double maxY, List<Integer> result) {
+            // Clamped to the occupied cells, so a view far wider than the network doesn't visit empty rows
+            int firstColumn = Math.max(column(minX), 0), lastColumn = Math.min(column(maxX), this.lastColumn);
+            int firstRow = Math.max(row(minY), 0), lastRow = Math.min(row(maxY), cellY(keys[keys.length - 1]));
+            int found = 0;
+
+            for (int cy = firstRow; cy <= lastRow && lastColumn >= firstColumn; ++cy) {
+                int i = Arrays.binarySearch(keys, key(firstColumn, cy));
+                if (i < 0) i = -i - 1;
+
+                long last = key(lastColumn, cy);
+                for (; i < keys.length && keys[i] <= last; ++i) {
+                    result.add(i);
+                    ++found;
+                }
+            }
+            return found;
+        }
+
+        private int column(double x) {
+            return (int) Math.min(Math.floor((x - StopClusters.this.minX) / cellSize), Integer.MAX_VALUE - 1);
+        }
+
+        private int row(double y) {
+            return (int) Math.min(Math.floor((y - StopClusters.this.minY) / cellSize), Integer.MAX_VALUE - 1);
+        }
+    }
+}
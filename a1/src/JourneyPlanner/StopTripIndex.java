@@ -0,0 +1,75 @@
+package JourneyPlanner;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An inverted index from each stop to the distinct trips that visit it, built once at load time.
+ *
+ * The index is in compressed sparse row form: the trips through the stop with index s are the trip
+ * indices tripIndices[offsets[s]] up to (but not including) tripIndices[offsets[s + 1]], in trip list
+ * order. Lookups are array reads and never allocate.
+ */
+public class StopTripIndex {
+    private final int[] offsets, tripIndices;
+    private final Trip[] trips;
+
+    /**
+     * Stops and trips must have their indices set to their positions in the given lists
+     */
+    public StopTripIndex(List<Stop> stops, List<Trip> trips) {
+        this.trips = trips.toArray(new Trip[0]);
+        offsets = new int[stops.size() + 1];
+
+        // Count the distinct trips at each stop, using lastSeen to skip a trip's repeat visits
+        int[] lastSeen = new int[stops.size()];
+        Arrays.fill(lastSeen, -1);
+        for (Trip t : this.trips) {
+            for (Connection c : t.getConnections()) {
+                count(c.getStart().getIndex(), t.getIndex(), lastSeen);
+                count(c.getEnd().getIndex(), t.getIndex(), lastSeen);
+            }
+        }
+
+        for (int s = 0; s < stops.size(); ++s) { offsets[s + 1] += offsets[s]; }
+
+        // Fill each stop's row, with cursor tracking the next free slot in it
+        tripIndices = new int[offsets[stops.size()]];
+        int[] cursor = Arrays.copyOf(offsets, stops.size());
+        Arrays.fill(lastSeen, -1);
+        for (Trip t : this.trips) {
+            for (Connection c : t.getConnections()) {
+                fill(c.getStart().getIndex(), t.getIndex(), lastSeen, cursor);
+                fill(c.getEnd().getIndex(), t.getIndex(), lastSeen, cursor);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct trips that visit the stop
+     */
+    public int tripCount(Stop s) {
+        return offsets[s.getIndex() + 1] - offsets[s.getIndex()];
+    }
+
+    /**
+     * Returns the i-th trip visiting the stop, for 0 <= i < tripCount(s)
+     */
+    public Trip getTrip(Stop s, int i) {
+        return trips[tripIndices[offsets[s.getIndex()] + i]];
+    }
+
+    /** Helper Methods **/
+
+    private void count(int stop, int trip, int[] lastSeen) {
+        if (lastSeen[stop] == trip) return;
+        lastSeen[stop] = trip;
+        ++offsets[stop + 1];
+    }
+
+    private void fill(int stop, int trip, int[] lastSeen, int[] cursor) {
+        if (lastSeen[stop] == trip) return;
+        lastSeen[stop] = trip;
+        tripIndices[cursor[stop]++] = trip;
+    }
+}
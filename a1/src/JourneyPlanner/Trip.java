@@ -5,6 +5,7 @@ import java.util.List;
 
 public class Trip {
     private String ID;
+    private int index; // Position of this trip in the planner's trip list
     private List<Connection> connections = new ArrayList<Connection>();
 
     public Trip(String id, List<Connection> connections){
@@ -20,13 +21,15 @@ public class Trip {
         connections.add(c);
     }
 
-    public void setHighlight(boolean isHighlighted) {
-        for (Connection c : connections) {
-            c.setHighlight(isHighlighted);
-        }
-    }
-
     public String getID() {
         return ID;
     }
+
+    public List<Connection> getConnections() {
+        return connections;
+    }
+
+    public int getIndex() { return index; }
+
+    public void setIndex(int index) { this.index = index; }
 }
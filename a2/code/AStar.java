@@ -0,0 +1,266 @@
+import java.util.Arrays;
+
+/**
+ * A* search over a RoutingGraph, by either distance or travel time.
+ *
+ * The states of the search are the graph's directed edges rather than its
+ * nodes, with the cost of an edge being the cheapest way to reach its end
+ * having come along it. That is what turn restrictions need: a node reached
+ * one way may still have to be reached again another way to make a turn that
+ * the first way bans, which a search that settles each node once can't do.
+ * Moving between edges costs the second edge's weight plus the graph's turn
+ * cost, and skips turns the graph says are banned.
+ *
+ * The open set is a NodeHeap, so an edge's key can be lowered in place rather
+ * than searched for or pushed again. The costs and parents are plain arrays
+ * sized to the graph and reused between queries; each query bumps a stamp
+ * instead of clearing them, so a short route only touches the edges near it.
+ *
+ * The heuristic is the straight line distance to the goal, divided by the
+ * fastest speed on any edge when searching by time, so it never overestimates
+ * in either metric. A search can also be given Landmarks for its metric, and
+ * then uses whichever of the two bounds is larger at each node; the landmark
+ * bound follows the roads, so it is much tighter when searching by time, where
+ * the straight line bound assumes the whole route is on the fastest road.
+ * Restrictions and turn costs only ever make routes dearer, so both bounds
+ * still hold.
+ *
+ * Routes can also run between Snaps part way along segments. The search then
+ * starts on the edges along the first segment, having covered only the part of
+ * each beyond the start, and may finish on an edge along the last segment
+ * part way through it. A finish is noted when its edge is reached, and the
+ * search stops once nothing open could beat the best one.
+ */
+public class AStar {
+	private final RoutingGraph graph;
+	private final double maxSpeed;
+
+	// per edge search state, valid for an edge when its stamp is the current query
+	private final double[] g;
+	private final int[] parent, stamp;
+	private final NodeHeap open;
+	private int query, settled;
+
+	// the edges a route can finish along, and how much of each it covers, valid
+	// for an edge when its goal stamp is the current query
+	private final double[] goalPart;
+	private final int[] goalStamp;
+
+	// the current query's metric, bounds and goal, and the best finish so far
+	private boolean isDistance;
+	private Landmarks landmarks;
+	private double hScale, goalX, goalY;
+	private int goalA, goalB;
+	private double bestFinish;
+	private int finishEdge, finishParent;
+
+	public AStar(RoutingGraph graph) {
+		this.graph = graph;
+		int m = graph.edgeCount();
+		g = new double[m];
+		parent = new int[m];
+		stamp = new int[m];
+		open = new NodeHeap(m);
+		goalPart = new double[m];
+		goalStamp = new int[m];
+
+		double fastest = 0;
+		for (int e = 0; e < m; e++) {
+			if (graph.time(e) > 0)
+				fastest = Math.max(fastest, graph.length(e) / graph.time(e));
+		}
+		maxSpeed = fastest;
+	}
+
+	/**
+	 * Finds the cheapest route between two nodes, given by their indices in
+	 * the RoutingGraph.
+	 *
+	 * @return the edges of the route in order from start to end, which is
+	 *         empty if they are the same node, or null if there is no route.
+	 */
+	public int[] findPath(int start, int end, boolean isDistance) {
+		return findPath(start, end, isDistance, null);
+	}
+
+	/**
+	 * Finds the cheapest route between two nodes as above, also bounding the
+	 * remaining cost with the landmarks if they aren't null and are for the
+	 * same metric.
+	 */
+	public int[] findPath(int start, int end, boolean isDistance, Landmarks landmarks) {
+		begin(isDistance, landmarks);
+		if (start == end)
+			return new int[0];
+
+		aimAt(graph.getX(end), graph.getY(end), end, end);
+		goalNode(end);
+		seedNode(start);
+		return search();
+	}
+
+	/**
+	 * Finds the cheapest route between two points on segments, bounding the
+	 * remaining cost with the landmarks as above.
+	 *
+	 * @return the edges of the route in order, the first and last of which
+	 *         may only be partly covered, as given by the Snaps' after and
+	 *         before, or null if there is no route.
+	 */
+	public int[] findPath(Snap from, Snap to, boolean isDistance, Landmarks landmarks) {
+		if (from.node() >= 0 && to.node() >= 0)
+			return findPath(from.node(), to.node(), isDistance, landmarks);
+		begin(isDistance, landmarks);
+
+		if (to.node() >= 0) {
+			aimAt(to.location.x, to.location.y, to.node(), to.node());
+			goalNode(to.node());
+		} else {
+			aimAt(to.location.x, to.location.y, to.segment.start.getIndex(), to.segment.end.getIndex());
+			for (boolean forward : new boolean[] { true, false }) {
+				int e = graph.segmentEdge(to.segmentIndex, forward);
+				if (e >= 0)
+					goal(e, to.before(graph, e));
+			}
+		}
+
+		if (from.node() >= 0) {
+			seedNode(from.node());
+		} else {
+			for (boolean forward : new boolean[] { true, false }) {
+				int e = graph.segmentEdge(from.segmentIndex, forward);
+				if (e >= 0)
+					seed(e, from.after(graph, e));
+			}
+		}
+		return search();
+	}
+
+	/**
+	 * @return the number of edges settled by the last query.
+	 */
+	public int getSettledCount() {
+		return settled;
+	}
+
+	/** Helper Methods **/
+
+	private void begin(boolean isDistance, Landmarks landmarks) {
+		if (++query == 0) { // stamps wrapped around, so start them again
+			Arrays.fill(stamp, 0);
+			Arrays.fill(goalStamp, 0);
+			query = 1;
+		}
+		open.clear();
+		settled = 0;
+		bestFinish = Double.POSITIVE_INFINITY;
+		finishEdge = finishParent = -1;
+
+		this.isDistance = isDistance;
+		this.landmarks = landmarks != null && landmarks.isDistance() == isDistance ? landmarks : null;
+		hScale = isDistance ? 1 : maxSpeed > 0 ? 1 / maxSpeed : 0;
+	}
+
+	/**
+	 * Sets where the heuristic measures to: the goal's location, and the nodes
+	 * any route to it must pass through last, for the landmark bounds.
+	 */
+	private void aimAt(double x, double y, int a, int b) {
+		goalX = x;
+		goalY = y;
+		goalA = a;
+		goalB = b;
+	}
+
+	private void goalNode(int node) {
+		for (int i = graph.firstInEdge(node); i < graph.lastInEdge(node); i++)
+			goal(graph.inEdge(i), 1);
+	}
+
+	private void goal(int edge, double part) {
+		goalStamp[edge] = query;
+		goalPart[edge] = part;
+	}
+
+	private void seedNode(int node) {
+		for (int e = graph.firstEdge(node); e < graph.lastEdge(node); e++)
+			seed(e, 1);
+	}
+
+	/**
+	 * Starts the search on the edge with only the given part of it to cover,
+	 * finishing straight away if the goal is further along the same edge.
+	 */
+	private void seed(int edge, double part) {
+		double weight = graph.weight(edge, isDistance);
+		if (goalStamp[edge] == query && 1 - part <= goalPart[edge])
+			finish(edge, -1, (goalPart[edge] - (1 - part)) * weight);
+		relax(edge, part * weight, -1);
+	}
+
+	private int[] search() {
+		while (!open.isEmpty() && open.peekKey() < bestFinish) {
+			int current = open.pop();
+			settled++;
+			int at = graph.target(current);
+
+			// turn restrictions only apply at a handful of nodes, so only look when there are some
+			boolean restricted = graph.hasRestrictions(at);
+			for (int e = graph.firstEdge(at); e < graph.lastEdge(at); e++) {
+				if (restricted && !graph.isTurnAllowed(current, e))
+					continue;
+				double cost = g[current] + graph.turnCost(current, e, isDistance);
+				double weight = graph.weight(e, isDistance);
+				if (goalStamp[e] == query)
+					finish(e, current, cost + goalPart[e] * weight);
+				relax(e, cost + weight, current);
+			}
+		}
+
+		if (finishEdge < 0)
+			return null;
+		int length = 1;
+		for (int e = finishParent; e >= 0; e = parent[e])
+			length++;
+
+		int[] edges = new int[length];
+		edges[--length] = finishEdge;
+		for (int e = finishParent; e >= 0; e = parent[e])
+			edges[--length] = e;
+		return edges;
+	}
+
+	private void finish(int edge, int from, double cost) {
+		if (cost < bestFinish) {
+			bestFinish = cost;
+			finishEdge = edge;
+			finishParent = from;
+		}
+	}
+
+	/**
+	 * Reaches the edge at the given cost, if that's the first or cheapest way
+	 * found to it and it hasn't been settled.
+	 */
+	private void relax(int edge, double cost, int from) {
+		// an edge that has been seen but isn't open has already been settled
+		if (stamp[edge] == query && (!open.contains(edge) || cost >= g[edge]))
+			return;
+		stamp[edge] = query;
+		g[edge] = cost;
+		parent[edge] = from;
+		open.update(edge, cost + estimate(graph.target(edge)));
+	}
+
+	/**
+	 * @return a lower bound on the cost from the node to the goal.
+	 */
+	private double estimate(int node) {
+		double dx = graph.getX(node) - goalX, dy = graph.getY(node) - goalY;
+		double h = Math.sqrt(dx * dx + dy * dy) * hScale;
+		if (landmarks == null)
+			return h;
+		double bound = Math.min(landmarks.lowerBound(node, goalA), landmarks.lowerBound(node, goalB));
+		return Math.max(h, bound);
+	}
+}
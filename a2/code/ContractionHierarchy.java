@@ -0,0 +1,784 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * A contraction hierarchy over a RoutingGraph for one metric, either distance
+ * or travel time, which answers shortest route queries while settling only a
+ * few hundred nodes however far apart the ends are.
+ *
+ * Preprocessing ranks the nodes by importance and contracts them from least
+ * to most important. Contracting a node removes it from the remaining graph,
+ * adding a shortcut between each pair of its neighbours unless a witness
+ * search finds another route that is no longer. Each node's importance is its
+ * edge difference (shortcuts added less edges removed) plus the number of its
+ * neighbours already contracted, computed for every node in parallel at the
+ * start and then updated lazily as contraction goes.
+ *
+ * The result keeps only the edges leading up the ranking, in compressed sparse
+ * row form: the upward edges out of each node, and the upward edges into each
+ * node, stored reversed. A query runs Dijkstra upwards from both ends and the
+ * best meeting node gives the route. Each edge records either the graph edge
+ * it came from or, for a shortcut, the node it bypasses, so a route is turned
+ * back into graph edges by recursively unpacking shortcuts.
+ *
+ * Costs between many sources and many targets are found without a query per
+ * pair: every target's backward search space is written into buckets at the
+ * nodes it settles, and each source's forward search then reads the buckets
+ * of the nodes it settles, the cheapest meeting for each target being its
+ * cost. Both sets of searches run across worker threads.
+ */
+public class ContractionHierarchy {
+	private static final int MAGIC = 0x43484D50, VERSION = 2;
+	// witness searches give up after settling this many nodes, and just add the shortcut
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private final RoutingGraph graph;
+	private final boolean isDistance;
+	private final int[] rank;
+
+	// upward edges out of each node; a via of -(e + 1) means graph edge e,
+	// otherwise it is the node a shortcut bypasses
+	private final int[] upOffsets, upTargets, upVia;
+	private final double[] upWeights;
+	// upward edges into each node, by the node they come from
+	private final int[] downOffsets, downSources, downVia;
+	private final double[] downWeights;
+
+	// query state for each direction, valid for a node when its stamp is the current query
+	private final double[] forwardDist, backwardDist;
+	private final int[] forwardEdge, backwardEdge, forwardStamp, backwardStamp;
+	private final NodeHeap forwardHeap, backwardHeap;
+	private int query, settled;
+
+	/**
+	 * Builds the hierarchy for the graph, by distance if isDistance is true
+	 * and by travel time otherwise.
+	 */
+	public ContractionHierarchy(RoutingGraph graph, boolean isDistance) {
+		this.graph = graph;
+		this.isDistance = isDistance;
+		int n = graph.nodeCount();
+		rank = new int[n];
+
+		Adjacency[] out = new Adjacency[n], in = new Adjacency[n];
+		for (int v = 0; v < n; v++) {
+			out[v] = new Adjacency();
+			in[v] = new Adjacency();
+		}
+		for (int u = 0; u < n; u++) {
+			for (int e = graph.firstEdge(u); e < graph.lastEdge(u); e++) {
+				int x = graph.target(e);
+				if (x == u)
+					continue;
+				out[u].setMin(x, graph.weight(e, isDistance), -(e + 1));
+				in[x].setMin(u, graph.weight(e, isDistance), -(e + 1));
+			}
+		}
+
+		contract(out, in);
+
+		int[][] up = upwardEdges(out), down = upwardEdges(in);
+		upOffsets = up[0];
+		upTargets = up[1];
+		upVia = up[2];
+		upWeights = upwardWeights(out, upOffsets);
+		downOffsets = down[0];
+		downSources = down[1];
+		downVia = down[2];
+		downWeights = upwardWeights(in, downOffsets);
+
+		forwardDist = new double[n];
+		backwardDist = new double[n];
+		forwardEdge = new int[n];
+		backwardEdge = new int[n];
+		forwardStamp = new int[n];
+		backwardStamp = new int[n];
+		forwardHeap = new NodeHeap(n);
+		backwardHeap = new NodeHeap(n);
+	}
+
+	private ContractionHierarchy(RoutingGraph graph, boolean isDistance, int[] rank,
+			int[] upOffsets, int[] upTargets, int[] upVia, double[] upWeights,
+			int[] downOffsets, int[] downSources, int[] downVia, double[] downWeights) {
+		this.graph = graph;
+		this.isDistance = isDistance;
+		this.rank = rank;
+		this.upOffsets = upOffsets;
+		this.upTargets = upTargets;
+		this.upVia = upVia;
+		this.upWeights = upWeights;
+		this.downOffsets = downOffsets;
+		this.downSources = downSources;
+		this.downVia = downVia;
+		this.downWeights = downWeights;
+
+		int n = graph.nodeCount();
+		forwardDist = new double[n];
+		backwardDist = new double[n];
+		forwardEdge = new int[n];
+		backwardEdge = new int[n];
+		forwardStamp = new int[n];
+		backwardStamp = new int[n];
+		forwardHeap = new NodeHeap(n);
+		backwardHeap = new NodeHeap(n);
+	}
+
+	/**
+	 * Reads the hierarchy from the cache file if it is newer than all the
+	 * sources and matches the graph, otherwise builds it and writes it to the
+	 * cache file for next time. Problems reading or writing the cache are
+	 * passed to messages, as the hierarchy is still usable without it.
+	 */
+	public static ContractionHierarchy loadOrBuild(File cache, RoutingGraph graph, boolean isDistance,
+			Consumer<String> messages, File... sources) {
+		boolean fresh = cache.exists();
+		for (File source : sources) {
+			if (source != null && source.lastModified() > cache.lastModified())
+				fresh = false;
+		}
+
+		if (fresh) {
+			try {
+				ContractionHierarchy loaded = load(cache, graph, isDistance);
+				if (loaded != null)
+					return loaded;
+			} catch (IOException e) {
+				messages.accept("Could not read " + cache + ", rebuilding it (" + e + ")");
+			}
+		}
+
+		ContractionHierarchy built = new ContractionHierarchy(graph, isDistance);
+		try {
+			built.save(cache);
+		} catch (IOException e) {
+			messages.accept("Could not write " + cache + " (" + e + ")");
+		}
+		return built;
+	}
+
+	/**
+	 * Writes the hierarchy to a temporary file beside the given one and then
+	 * moves it into place, so a reader never sees a half written file.
+	 */
+	public void save(File file) throws IOException {
+		File temporary = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(graph.nodeCount());
+			out.writeInt(graph.edgeCount());
+			out.writeLong(graph.fingerprint());
+			out.writeBoolean(isDistance);
+			writeInts(out, rank);
+			writeInts(out, upOffsets);
+			writeInts(out, upTargets);
+			writeInts(out, upVia);
+			writeDoubles(out, upWeights);
+			writeInts(out, downOffsets);
+			writeInts(out, downSources);
+			writeInts(out, downVia);
+			writeDoubles(out, downWeights);
+		} catch (IOException e) {
+			temporary.delete();
+			throw e;
+		}
+
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temporary.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the hierarchy saved in the file, or null if it was built for a
+	 *         different graph or metric.
+	 */
+	public static ContractionHierarchy load(File file, RoutingGraph graph, boolean isDistance) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != graph.nodeCount()
+					|| in.readInt() != graph.edgeCount() || in.readLong() != graph.fingerprint()
+					|| in.readBoolean() != isDistance)
+				return null;
+
+			return new ContractionHierarchy(graph, isDistance, readInts(in), readInts(in), readInts(in),
+					readInts(in), readDoubles(in), readInts(in), readInts(in), readInts(in), readDoubles(in));
+		}
+	}
+
+	/**
+	 * Finds the cheapest route between two nodes, given by their indices in
+	 * the RoutingGraph.
+	 *
+	 * @return the graph edges of the route in order from start to end, which
+	 *         is empty if they are the same node, or null if there is no route.
+	 */
+	public int[] findPath(int start, int end) {
+		if (++query == 0) { // stamps wrapped around, so start them again
+			Arrays.fill(forwardStamp, 0);
+			Arrays.fill(backwardStamp, 0);
+			query = 1;
+		}
+		forwardHeap.clear();
+		backwardHeap.clear();
+		settled = 0;
+		if (start == end)
+			return new int[0];
+
+		reach(start, 0, -1, forwardDist, forwardEdge, forwardStamp, forwardHeap);
+		reach(end, 0, -1, backwardDist, backwardEdge, backwardStamp, backwardHeap);
+		double best = Double.POSITIVE_INFINITY;
+		int meeting = -1;
+
+		while (!forwardHeap.isEmpty() || !backwardHeap.isEmpty()) {
+			double forwardMin = forwardHeap.isEmpty() ? Double.POSITIVE_INFINITY : forwardHeap.peekKey();
+			double backwardMin = backwardHeap.isEmpty() ? Double.POSITIVE_INFINITY : backwardHeap.peekKey();
+			if (Math.min(forwardMin, backwardMin) >= best)
+				break;
+
+			boolean forward = forwardMin <= backwardMin;
+			int u = forward ? forwardHeap.pop() : backwardHeap.pop();
+			settled++;
+
+			if (forwardStamp[u] == query && backwardStamp[u] == query
+					&& forwardDist[u] + backwardDist[u] < best) {
+				best = forwardDist[u] + backwardDist[u];
+				meeting = u;
+			}
+
+			if (forward) {
+				for (int e = upOffsets[u]; e < upOffsets[u + 1]; e++)
+					reach(upTargets[e], forwardDist[u] + upWeights[e], e, forwardDist, forwardEdge, forwardStamp,
+							forwardHeap);
+			} else {
+				for (int e = downOffsets[u]; e < downOffsets[u + 1]; e++)
+					reach(downSources[e], backwardDist[u] + downWeights[e], e, backwardDist, backwardEdge,
+							backwardStamp, backwardHeap);
+			}
+		}
+
+		if (meeting < 0)
+			return null;
+		return unpackRoute(start, end, meeting);
+	}
+
+	/**
+	 * Finds the cost from every source to every target, given by their indices
+	 * in the RoutingGraph. Like findPath it doesn't know about turn
+	 * restrictions. It doesn't use the query state, so it can run alongside
+	 * findPath.
+	 *
+	 * @return costs[i][j] from sources[i] to targets[j], which is infinite
+	 *         where there is no route.
+	 */
+	public double[][] distanceMatrix(int[] sources, int[] targets) {
+		int n = rank.length;
+		ThreadLocal<UpwardSearch> searches = ThreadLocal.withInitial(() -> new UpwardSearch(n));
+
+		// each target's backward search space, as the nodes settled and their costs
+		int[][] spaceNodes = new int[targets.length][];
+		double[][] spaceCosts = new double[targets.length][];
+		IntStream.range(0, targets.length).parallel().forEach(j -> {
+			UpwardSearch search = searches.get();
+			search.run(targets[j], false);
+			spaceNodes[j] = Arrays.copyOf(search.settled.values, search.settled.size);
+			spaceCosts[j] = new double[search.settled.size];
+			for (int k = 0; k < spaceCosts[j].length; k++)
+				spaceCosts[j][k] = search.dist[spaceNodes[j][k]];
+		});
+
+		// gather the spaces into a bucket per node, in compressed sparse row form
+		int[] bucketOffsets = new int[n + 1];
+		for (int[] space : spaceNodes) {
+			for (int node : space)
+				bucketOffsets[node + 1]++;
+		}
+		for (int v = 0; v < n; v++)
+			bucketOffsets[v + 1] += bucketOffsets[v];
+		int[] bucketTargets = new int[bucketOffsets[n]];
+		double[] bucketCosts = new double[bucketOffsets[n]];
+		int[] next = Arrays.copyOf(bucketOffsets, n);
+		for (int j = 0; j < targets.length; j++) {
+			for (int k = 0; k < spaceNodes[j].length; k++) {
+				int b = next[spaceNodes[j][k]]++;
+				bucketTargets[b] = j;
+				bucketCosts[b] = spaceCosts[j][k];
+			}
+		}
+
+		double[][] costs = new double[sources.length][];
+		IntStream.range(0, sources.length).parallel().forEach(i -> {
+			UpwardSearch search = searches.get();
+			search.run(sources[i], true);
+			double[] row = new double[targets.length];
+			Arrays.fill(row, Double.POSITIVE_INFINITY);
+			for (int k = 0; k < search.settled.size; k++) {
+				int u = search.settled.values[k];
+				double d = search.dist[u];
+				for (int b = bucketOffsets[u]; b < bucketOffsets[u + 1]; b++) {
+					if (d + bucketCosts[b] < row[bucketTargets[b]])
+						row[bucketTargets[b]] = d + bucketCosts[b];
+				}
+			}
+			costs[i] = row;
+		});
+		return costs;
+	}
+
+	/**
+	 * @return the number of nodes settled by the last query, in both
+	 *         directions.
+	 */
+	public int getSettledCount() {
+		return settled;
+	}
+
+	public boolean isDistance() {
+		return isDistance;
+	}
+
+	/**
+	 * @return the number of upward edges, including shortcuts.
+	 */
+	public int edgeCount() {
+		return upTargets.length + downSources.length;
+	}
+
+	/** Helper Methods **/
+
+	private void reach(int node, double dist, int edge, double[] dists, int[] edges, int[] stamps, NodeHeap heap) {
+		if (stamps[node] == query && dists[node] <= dist)
+			return;
+		stamps[node] = query;
+		dists[node] = dist;
+		edges[node] = edge;
+		heap.update(node, dist);
+	}
+
+	/**
+	 * Follows both searches' edges out from the meeting node and unpacks them
+	 * into graph edges.
+	 */
+	private int[] unpackRoute(int start, int end, int meeting) {
+		IntList route = new IntList();
+
+		// the forward search's edges lead back from the meeting node to the start
+		IntList forwardEdges = new IntList();
+		for (int u = meeting; u != start; u = source(forwardEdge[u]))
+			forwardEdges.add(forwardEdge[u]);
+		for (int i = forwardEdges.size - 1; i >= 0; i--) {
+			int e = forwardEdges.values[i];
+			unpack(source(e), upTargets[e], upVia[e], route);
+		}
+
+		for (int u = meeting; u != end; u = downTargetOf(backwardEdge[u])) {
+			int e = backwardEdge[u];
+			unpack(u, downTargetOf(e), downVia[e], route);
+		}
+
+		return Arrays.copyOf(route.values, route.size);
+	}
+
+	/**
+	 * Adds the graph edges making up the edge from one node to another.
+	 */
+	private void unpack(int from, int to, int via, IntList route) {
+		if (via < 0) {
+			route.add(-via - 1);
+			return;
+		}
+
+		// the bypassed node is ranked below both ends, so the edge into it is
+		// one of its downward list and the edge out of it one of its upward list
+		int in = -1, out = -1;
+		for (int e = downOffsets[via]; e < downOffsets[via + 1]; e++) {
+			if (downSources[e] == from && (in < 0 || downWeights[e] < downWeights[in]))
+				in = e;
+		}
+		for (int e = upOffsets[via]; e < upOffsets[via + 1]; e++) {
+			if (upTargets[e] == to && (out < 0 || upWeights[e] < upWeights[out]))
+				out = e;
+		}
+		unpack(from, via, downVia[in], route);
+		unpack(via, to, upVia[out], route);
+	}
+
+	/**
+	 * @return the node an upward edge leaves from.
+	 */
+	private int source(int upEdge) {
+		return rowOf(upOffsets, upEdge);
+	}
+
+	/**
+	 * @return the node a reversed upward edge leads into.
+	 */
+	private int downTargetOf(int downEdge) {
+		return rowOf(downOffsets, downEdge);
+	}
+
+	private static int rowOf(int[] offsets, int index) {
+		int lo = 0, hi = offsets.length - 2;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (offsets[mid] <= index)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Contracts every node in order of importance, filling in rank and adding
+	 * the shortcuts to the adjacency lists. Only the first priorities are
+	 * worked out in parallel: each contraction changes its neighbours'
+	 * adjacency lists and priorities, which the next pick depends on.
+	 */
+	private void contract(Adjacency[] out, Adjacency[] in) {
+		int n = rank.length;
+		boolean[] contracted = new boolean[n];
+		int[] contractedNeighbours = new int[n];
+
+		// the first priorities only read the graph, so each thread simulates its share of nodes
+		double[] initial = new double[n];
+		ThreadLocal<WitnessSearch> searches = ThreadLocal.withInitial(() -> new WitnessSearch(n));
+		IntStream.range(0, n).parallel().forEach(v ->
+				initial[v] = priority(v, out, in, contracted, contractedNeighbours, searches.get()));
+
+		NodeHeap order = new NodeHeap(n);
+		for (int v = 0; v < n; v++)
+			order.update(v, initial[v]);
+
+		WitnessSearch search = new WitnessSearch(n);
+		int nextRank = 0;
+		while (!order.isEmpty()) {
+			int v = order.pop();
+
+			// priorities go stale as neighbours are contracted, so check this one is still the least
+			double current = priority(v, out, in, contracted, contractedNeighbours, search);
+			if (!order.isEmpty() && current > order.peekKey()) {
+				order.update(v, current);
+				continue;
+			}
+
+			shortcuts(v, out, in, contracted, search, true);
+			contracted[v] = true;
+			rank[v] = nextRank++;
+
+			for (int i = 0; i < out[v].size; i++) {
+				if (!contracted[out[v].nodes[i]])
+					contractedNeighbours[out[v].nodes[i]]++;
+			}
+			for (int i = 0; i < in[v].size; i++) {
+				if (!contracted[in[v].nodes[i]])
+					contractedNeighbours[in[v].nodes[i]]++;
+			}
+		}
+	}
+
+	private static double priority(int v, Adjacency[] out, Adjacency[] in, boolean[] contracted,
+			int[] contractedNeighbours, WitnessSearch search) {
+		int removed = 0;
+		for (int i = 0; i < out[v].size; i++) {
+			if (!contracted[out[v].nodes[i]])
+				removed++;
+		}
+		for (int i = 0; i < in[v].size; i++) {
+			if (!contracted[in[v].nodes[i]])
+				removed++;
+		}
+		return shortcuts(v, out, in, contracted, search, false) - removed + contractedNeighbours[v];
+	}
+
+	/**
+	 * Works out the shortcuts needed to contract v, adding them to the graph if
+	 * add is true.
+	 *
+	 * @return the number of shortcuts needed.
+	 */
+	private static int shortcuts(int v, Adjacency[] out, Adjacency[] in, boolean[] contracted,
+			WitnessSearch search, boolean add) {
+		int count = 0;
+		Adjacency incoming = in[v], outgoing = out[v];
+
+		for (int i = 0; i < incoming.size; i++) {
+			int u = incoming.nodes[i];
+			if (contracted[u])
+				continue;
+
+			double maxOut = 0;
+			for (int j = 0; j < outgoing.size; j++) {
+				if (!contracted[outgoing.nodes[j]] && outgoing.nodes[j] != u)
+					maxOut = Math.max(maxOut, outgoing.weights[j]);
+			}
+			double limit = incoming.weights[i] + maxOut;
+			search.run(u, v, limit, out, contracted);
+
+			for (int j = 0; j < outgoing.size; j++) {
+				int x = outgoing.nodes[j];
+				if (contracted[x] || x == u)
+					continue;
+
+				double through = incoming.weights[i] + outgoing.weights[j];
+				if (search.distance(x) <= through)
+					continue;
+
+				count++;
+				if (add) {
+					out[u].setMin(x, through, v);
+					in[x].setMin(u, through, v);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gathers each node's edges to higher ranked nodes into CSR arrays of
+	 * offsets, other ends and vias.
+	 */
+	private int[][] upwardEdges(Adjacency[] lists) {
+		int n = rank.length;
+		int[] offsets = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			int count = 0;
+			for (int i = 0; i < lists[v].size; i++) {
+				if (rank[lists[v].nodes[i]] > rank[v])
+					count++;
+			}
+			offsets[v + 1] = offsets[v] + count;
+		}
+
+		int[] ends = new int[offsets[n]], vias = new int[offsets[n]];
+		for (int v = 0; v < n; v++) {
+			int next = offsets[v];
+			for (int i = 0; i < lists[v].size; i++) {
+				if (rank[lists[v].nodes[i]] > rank[v]) {
+					ends[next] = lists[v].nodes[i];
+					vias[next++] = lists[v].vias[i];
+				}
+			}
+		}
+		return new int[][] { offsets, ends, vias };
+	}
+
+	private double[] upwardWeights(Adjacency[] lists, int[] offsets) {
+		double[] weights = new double[offsets[rank.length]];
+		for (int v = 0; v < rank.length; v++) {
+			int next = offsets[v];
+			for (int i = 0; i < lists[v].size; i++) {
+				if (rank[lists[v].nodes[i]] > rank[v])
+					weights[next++] = lists[v].weights[i];
+			}
+		}
+		return weights;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values)
+			out.writeInt(value);
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for (double value : values)
+			out.writeDouble(value);
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = in.readInt();
+		return values;
+	}
+
+	private static double[] readDoubles(DataInputStream in) throws IOException {
+		double[] values = new double[in.readInt()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = in.readDouble();
+		return values;
+	}
+
+	/**
+	 * One node's edges while contracting, which grow as shortcuts are added.
+	 */
+	private static class Adjacency {
+		int[] nodes = new int[4], vias = new int[4];
+		double[] weights = new double[4];
+		int size;
+
+		/**
+		 * Adds an edge to the node, or lowers the existing one if this is
+		 * shorter.
+		 */
+		void setMin(int node, double weight, int via) {
+			for (int i = 0; i < size; i++) {
+				if (nodes[i] == node) {
+					if (weight < weights[i]) {
+						weights[i] = weight;
+						vias[i] = via;
+					}
+					return;
+				}
+			}
+
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				vias = Arrays.copyOf(vias, size * 2);
+				weights = Arrays.copyOf(weights, size * 2);
+			}
+			nodes[size] = node;
+			vias[size] = via;
+			weights[size] = weight;
+			size++;
+		}
+	}
+
+	/**
+	 * A Dijkstra search limited in distance and size, through the nodes not yet
+	 * contracted, which looks for routes that make a shortcut unnecessary.
+	 */
+	private static class WitnessSearch {
+		private final double[] dist;
+		private final int[] stamp;
+		private final NodeHeap heap;
+		private int query;
+
+		WitnessSearch(int nodeCount) {
+			dist = new double[nodeCount];
+			stamp = new int[nodeCount];
+			heap = new NodeHeap(nodeCount);
+		}
+
+		/**
+		 * Searches from start without passing through avoid, until every node
+		 * within limit is settled or the settle limit is hit.
+		 */
+		void run(int start, int avoid, double limit, Adjacency[] out, boolean[] contracted) {
+			query++;
+			heap.clear();
+			stamp[start] = query;
+			dist[start] = 0;
+			heap.update(start, 0);
+
+			int settledNodes = 0;
+			while (!heap.isEmpty() && heap.peekKey() <= limit && settledNodes++ < WITNESS_SETTLE_LIMIT) {
+				int u = heap.pop();
+				Adjacency edges = out[u];
+				for (int i = 0; i < edges.size; i++) {
+					int x = edges.nodes[i];
+					if (x == avoid || contracted[x])
+						continue;
+					double d = dist[u] + edges.weights[i];
+					if (stamp[x] != query || d < dist[x]) {
+						stamp[x] = query;
+						dist[x] = d;
+						heap.update(x, d);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the shortest distance found to the node by the last run, which
+		 *         may be more than the true distance if the search stopped early.
+		 */
+		double distance(int node) {
+			return stamp[node] == query ? dist[node] : Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * A complete upward Dijkstra search from one node in one direction, with
+	 * its own state so that several can run at once.
+	 *
+	 * A node can be reached upwards at more than its true cost when the
+	 * cheapest route to it comes down from a higher node. Such a node is
+	 * stalled: if a higher node already reached has an edge into it that
+	 * beats its cost, its edges aren't followed and it isn't counted as
+	 * settled. The true route through it is found by the other direction, and
+	 * the search spaces shrink a good deal.
+	 */
+	private class UpwardSearch {
+		final double[] dist;
+		final IntList settled = new IntList();
+		private final int[] stamp;
+		private final NodeHeap heap;
+		private int query;
+
+		UpwardSearch(int nodeCount) {
+			dist = new double[nodeCount];
+			stamp = new int[nodeCount];
+			heap = new NodeHeap(nodeCount);
+		}
+
+		/**
+		 * Searches up from start, forwards or backwards, leaving the nodes it
+		 * settled in settled and their costs in dist.
+		 */
+		void run(int start, boolean forward) {
+			query++;
+			heap.clear();
+			settled.size = 0;
+			stamp[start] = query;
+			dist[start] = 0;
+			heap.update(start, 0);
+
+			while (!heap.isEmpty()) {
+				int u = heap.pop();
+				if (isStalled(u, forward))
+					continue;
+				settled.add(u);
+
+				int first = forward ? upOffsets[u] : downOffsets[u];
+				int last = forward ? upOffsets[u + 1] : downOffsets[u + 1];
+				for (int e = first; e < last; e++) {
+					int x = forward ? upTargets[e] : downSources[e];
+					double d = dist[u] + (forward ? upWeights[e] : downWeights[e]);
+					if (stamp[x] != query || d < dist[x]) {
+						stamp[x] = query;
+						dist[x] = d;
+						heap.update(x, d);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return true if a higher node already reached has a cheaper way down
+		 *         to the node than the cost it was reached at.
+		 */
+		private boolean isStalled(int u, boolean forward) {
+			// the edges coming down into u in this direction are the other direction's upward edges
+			int first = forward ? downOffsets[u] : upOffsets[u];
+			int last = forward ? downOffsets[u + 1] : upOffsets[u + 1];
+			for (int e = first; e < last; e++) {
+				int x = forward ? downSources[e] : upTargets[e];
+				if (stamp[x] == query && dist[x] + (forward ? downWeights[e] : upWeights[e]) < dist[u])
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	private static class IntList {
+		int[] values = new int[16];
+		int size;
+
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+	}
+}
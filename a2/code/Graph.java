@@ -5,6 +5,8 @@ import java.io.File;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * This represents the data structure storing all the roads, nodes, and
@@ -20,41 +22,115 @@ public class Graph {
 	Map<Integer, Road> roads;
 	// just some collection of Segments.
 	Collection<Segment> segments;
+	// the same network as primitive arrays, for routing.
+	RoutingGraph routing;
+	// the nodes by location, for finding the ones near a point.
+	NodeGrid nodeGrid;
+	// the segments by location, for snapping a point to the closest road.
+	SegmentGrid segmentGrid;
+	// draws the segments in view, simplified to suit the zoom.
+	RoadRenderer roadRenderer;
+	// the contraction hierarchy for each metric, loaded or built in the background.
+	private CompletableFuture<ContractionHierarchy> distanceHierarchy, timeHierarchy;
 
 	Collection<Node> highlightedNodes = new HashSet<>();
 	Collection<Segment> highlightedSegments = new HashSet<>();
+	// screen coordinates for the highlighted segments, only used on the Swing thread.
+	private final PolylineBuffer highlightBuffer = new PolylineBuffer();
 
 	public Graph(File nodes, File roads, File segments, File polygons, File restrictions) {
 		this.nodes = Parser.parseNodes(nodes);
 		this.roads = Parser.parseRoads(roads);
 		this.segments = Parser.parseSegments(segments, this);
 		Parser.parseRestrictions(restrictions, this);
+		this.routing = new RoutingGraph(this.nodes.values(), this.segments);
+		this.nodeGrid = new NodeGrid(this.routing);
+		this.segmentGrid = new SegmentGrid(this.routing);
+		this.roadRenderer = new RoadRenderer(this.routing);
+	}
+
+	/**
+	 * Starts loading the contraction hierarchy for each metric from its cache
+	 * file in the background, building it instead if the cache is older than
+	 * the sources. Problems with the cache files are passed to messages.
+	 */
+	public synchronized void loadHierarchies(File distanceCache, File timeCache, Consumer<String> messages,
+			File... sources) {
+		distanceHierarchy = CompletableFuture.supplyAsync(
+				() -> ContractionHierarchy.loadOrBuild(distanceCache, routing, true, messages, sources));
+		timeHierarchy = CompletableFuture.supplyAsync(
+				() -> ContractionHierarchy.loadOrBuild(timeCache, routing, false, messages, sources));
+	}
+
+	/**
+	 * @return the contraction hierarchy for distance if isDistance is true and
+	 *         travel time otherwise, which starts being built in the background
+	 *         if loadHierarchies hasn't been called.
+	 */
+	public synchronized CompletableFuture<ContractionHierarchy> hierarchy(boolean isDistance) {
+		if (isDistance && distanceHierarchy == null)
+			distanceHierarchy = CompletableFuture.supplyAsync(() -> new ContractionHierarchy(routing, true));
+		if (!isDistance && timeHierarchy == null)
+			timeHierarchy = CompletableFuture.supplyAsync(() -> new ContractionHierarchy(routing, false));
+		return isDistance ? distanceHierarchy : timeHierarchy;
+	}
 
+	/**
+	 * Finds the cost of the shortest route from every source to every target
+	 * node, given by node ID, by distance if isDistance is true and by travel
+	 * time otherwise. This waits for the contraction hierarchy for the metric,
+	 * so the costs ignore turn restrictions and the U-turn penalty, and can be
+	 * less than those of the routes Mapper finds between the same nodes.
+	 *
+	 * @return costs[i][j] from sourceIDs[i] to targetIDs[j], which is infinite
+	 *         where there is no route.
+	 * @throws IllegalArgumentException if an ID isn't a node in the graph.
+	 */
+	public double[][] distanceMatrix(int[] sourceIDs, int[] targetIDs, boolean isDistance) {
+		int[] sources = nodeIndices(sourceIDs), targets = nodeIndices(targetIDs);
+		return hierarchy(isDistance).join().distanceMatrix(sources, targets);
 	}
 
-	public void draw(Graphics g, Dimension screen, Location origin, double scale) {
+	/**
+	 * Draws the segments and nodes in view, without any highlighting. This
+	 * only reads the graph, so it can be called from several threads at once.
+	 */
+	public void drawRoads(Graphics g, Dimension screen, Location origin, double scale) {
 		// a compatibility wart on swing is that it has to give out Graphics
 		// objects, but Graphics2D objects are nicer to work with. Luckily
 		// they're a subclass, and swing always gives them out anyway, so we can
 		// just do this.
 		Graphics2D g2 = (Graphics2D) g;
 
-		// draw all the segments.
+		// draw the segments in view.
 		g2.setColor(Mapper.SEGMENT_COLOUR);
-		for (Segment s : segments)
-			s.draw(g2, origin, scale);
+		roadRenderer.draw(g2, screen, origin, scale);
+
+		// draw the nodes in view, including the ones just off the edge whose squares overlap it,
+		// leaving out those whose roads are all hidden at this zoom.
+		g2.setColor(Mapper.NODE_COLOUR);
+		double margin = Node.size(scale) / scale;
+		int[] visible = nodeGrid.withinBox(origin.x - margin, origin.y - screen.height / scale - margin,
+				origin.x + screen.width / scale + margin, origin.y + margin);
+		for (int n : visible) {
+			if (roadRenderer.isNodeShown(n, scale))
+				routing.getNode(n).draw(g2, screen, origin, scale);
+		}
+	}
+
+	/**
+	 * Draws the highlighted segments and nodes.
+	 */
+	public void drawHighlights(Graphics g, Dimension screen, Location origin, double scale) {
+		Graphics2D g2 = (Graphics2D) g;
 
 		g2.setColor(Mapper.HIGHLIGHT_COLOUR);
 		// draw the highlighted segments
 		for (Segment s : highlightedSegments) {
-			s.draw(g2, origin, scale);
+			highlightBuffer.transform(routing, s.getIndex(), origin, scale);
+			highlightBuffer.draw(g2);
 		}
 
-		// draw all the nodes.
-		g2.setColor(Mapper.NODE_COLOUR);
-		for (Node n : nodes.values())
-			n.draw(g2, screen, origin, scale);
-
 		// draw the highlighted nodes
 		g2.setColor(Mapper.HIGHLIGHT_COLOUR);
 		for (Node n : highlightedNodes) {
@@ -62,6 +138,20 @@ public class Graph {
 		}
 	}
 
+	/**
+	 * @return the RoutingGraph indices of the nodes with the given IDs.
+	 */
+	private int[] nodeIndices(int[] nodeIDs) {
+		int[] indices = new int[nodeIDs.length];
+		for (int i = 0; i < nodeIDs.length; i++) {
+			Node node = nodes.get(nodeIDs[i]);
+			if (node == null)
+				throw new IllegalArgumentException("No node with ID " + nodeIDs[i]);
+			indices[i] = node.getIndex();
+		}
+		return indices;
+	}
+
 	public void addHighlightedNode(Node node) { this.highlightedNodes.add(node); }
 	public void addHighlightedSegment(Segment segment) { this.highlightedSegments.add(segment); }
 	public void unHighlight() {
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Lower bounds on route costs for A*, from the distances between every node
+ * and a few landmark nodes (the ALT heuristic: A*, landmarks and the triangle
+ * inequality), for one metric.
+ *
+ * Landmarks are picked by farthest point selection: each new landmark is the
+ * node furthest by route from all the landmarks picked so far, which spreads
+ * them around the edges of the map where they give the tightest bounds. For
+ * each landmark L the cost from L to every node and from every node to L is
+ * stored, and then for any nodes v and t both d(L, t) - d(L, v) and d(v, L) -
+ * d(t, L) are no more than the real cost from v to t. Road maps fall apart into
+ * islands and one way pockets, so the selection starts from whichever of a few
+ * probe nodes reaches the most of the map, and the landmarks all end up in that
+ * part; routes elsewhere just get no help from them. The costs are stored
+ * node by node, so a bound reads two short runs of memory.
+ */
+public class Landmarks {
+	public static final int DEFAULT_COUNT = 16;
+	private static final int SEED_PROBES = 8;
+
+	private final boolean isDistance;
+	private final int[] landmarks;
+	// costs from each landmark and to each landmark, at [node * count + landmark]
+	private final double[] from, to;
+
+	/**
+	 * Picks count landmarks in the graph and works out the costs to and from
+	 * them, by distance if isDistance is true and by travel time otherwise.
+	 */
+	public Landmarks(RoutingGraph graph, boolean isDistance, int count) {
+		this.isDistance = isDistance;
+		int n = graph.nodeCount();
+		count = Math.min(count, n);
+		landmarks = new int[count];
+		from = new double[n * count];
+		to = new double[n * count];
+
+		// farthest point selection, starting from the node furthest from the best probe
+		double[] seed = null;
+		int seedReach = -1;
+		for (int p = 0; p < SEED_PROBES; p++) {
+			double[] costs = dijkstra(graph, (int) ((long) p * n / SEED_PROBES), true);
+			int reach = 0;
+			for (double cost : costs) {
+				if (cost != Double.POSITIVE_INFINITY)
+					reach++;
+			}
+			if (reach > seedReach) {
+				seed = costs;
+				seedReach = reach;
+			}
+		}
+
+		double[] closest = new double[n];
+		Arrays.fill(closest, Double.POSITIVE_INFINITY);
+		int next = farthest(seed);
+		for (int l = 0; l < count; l++) {
+			landmarks[l] = next;
+			double[] costs = dijkstra(graph, next, true);
+			for (int v = 0; v < n; v++) {
+				from[v * count + l] = costs[v];
+				closest[v] = Math.min(closest[v], costs[v]);
+			}
+			next = farthest(closest);
+		}
+
+		// the backward searches don't depend on each other, so run them together
+		int landmarkCount = count;
+		IntStream.range(0, count).parallel().forEach(l -> {
+			double[] costs = dijkstra(graph, landmarks[l], false);
+			for (int v = 0; v < n; v++)
+				to[v * landmarkCount + l] = costs[v];
+		});
+	}
+
+	public boolean isDistance() {
+		return isDistance;
+	}
+
+	public int count() {
+		return landmarks.length;
+	}
+
+	/**
+	 * @return a cost no more than the cheapest route from node v to node t.
+	 */
+	public double lowerBound(int v, int t) {
+		int count = landmarks.length, vi = v * count, ti = t * count;
+		double best = 0;
+		for (int l = 0; l < count; l++) {
+			// a landmark that can't reach or be reached from either node says nothing
+			double forward = from[ti + l] - from[vi + l], backward = to[vi + l] - to[ti + l];
+			if (forward > best && forward != Double.POSITIVE_INFINITY)
+				best = forward;
+			if (backward > best && backward != Double.POSITIVE_INFINITY)
+				best = backward;
+		}
+		return best;
+	}
+
+	/**
+	 * @return the costs from the node to every other, or from every other to
+	 *         it if forward is false, which are infinite where there is no
+	 *         route.
+	 */
+	private double[] dijkstra(RoutingGraph graph, int start, boolean forward) {
+		double[] dist = new double[graph.nodeCount()];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		NodeHeap heap = new NodeHeap(graph.nodeCount());
+		dist[start] = 0;
+		heap.update(start, 0);
+
+		while (!heap.isEmpty()) {
+			int u = heap.pop();
+			int first = forward ? graph.firstEdge(u) : graph.firstInEdge(u);
+			int last = forward ? graph.lastEdge(u) : graph.lastInEdge(u);
+			for (int i = first; i < last; i++) {
+				int e = forward ? i : graph.inEdge(i);
+				int v = forward ? graph.target(e) : graph.source(e);
+				double d = dist[u] + graph.weight(e, isDistance);
+				if (d < dist[v]) {
+					dist[v] = d;
+					heap.update(v, d);
+				}
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * @return the node with the greatest cost that can be reached at all,
+	 *         which won't be a landmark since they cost nothing.
+	 */
+	private static int farthest(double[] costs) {
+		int best = 0;
+		double bestCost = -1;
+		for (int v = 0; v < costs.length; v++) {
+			if (costs[v] != Double.POSITIVE_INFINITY && costs[v] > bestCost) {
+				best = v;
+				bestCost = costs[v];
+			}
+		}
+		return best;
+	}
+}
@@ -52,9 +52,7 @@ public class Location {
 	 * required. Note the vertical direction is inverted
 	 */
 	public Point asPoint(Location origin, double scale) {
-		int u = (int) ((x - origin.x) * scale);
-		int v = (int) ((origin.y - y) * scale);
-		return new Point(u, v);
+		return new Point(screenX(x, origin, scale), screenY(y, origin, scale));
 	}
 
 	/**
@@ -63,8 +61,27 @@ public class Location {
 	 */
 	public static Location newFromPoint(Point point, Location origin,
 			double scale) {
-		return new Location(point.x / scale + origin.x, origin.y - point.y
-				/ scale);
+		return new Location(mapX(point.x, origin, scale), mapY(point.y, origin, scale));
+	}
+
+	/**
+	 * The same conversions one coordinate at a time, for drawing code that
+	 * transforms a lot of points and shouldn't make an object for each.
+	 */
+	public static int screenX(double x, Location origin, double scale) {
+		return (int) ((x - origin.x) * scale);
+	}
+
+	public static int screenY(double y, Location origin, double scale) {
+		return (int) ((origin.y - y) * scale);
+	}
+
+	public static double mapX(int u, Location origin, double scale) {
+		return u / scale + origin.x;
+	}
+
+	public static double mapY(int v, Location origin, double scale) {
+		return origin.y - v / scale;
 	}
 
 	/**
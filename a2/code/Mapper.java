@@ -3,6 +3,7 @@ import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This is the main class for the mapping program. It extends the GUI abstract
@@ -31,6 +32,12 @@ public class  Mapper extends GUI {
 
 	// how far away from a node you can click before it isn't counted.
 	public static final double MAX_CLICKED_DISTANCE = 0.15;
+	// how far away from a road you can click to start or end a route there.
+	public static final double MAX_SNAP_DISTANCE = 0.5;
+
+	// where the contraction hierarchies are cached, next to the data files.
+	public static final String DISTANCE_HIERARCHY_FILENAME = "distance.ch";
+	public static final String TIME_HIERARCHY_FILENAME = "time.ch";
 
 	// these two define the 'view' of the program, ie. where you're looking and
 	// how zoomed in you are.
@@ -39,62 +46,67 @@ public class  Mapper extends GUI {
 
 	// our data structures.
 	private Graph graph;
+	private TileRenderer tiles;
+	private AStar search;
+	// built in the background, and used once they're ready
+	private CompletableFuture<Landmarks> distanceLandmarks, timeLandmarks;
 
 	// To determine if routes should compute by distance (true) or
 	// time (false)
 	private boolean isDistance = true;
 
-	// Nodes to search for using a*
-	private Node start, end;
+	// Points to search between using a*, at nodes or part way along segments
+	private Snap start, end;
 	private JTextField startValue, endValue;
 
 	@Override
 	protected void redraw(Graphics g) {
-		if (graph != null)
-			graph.draw(g, getDrawingAreaDimension(), origin, scale);
+		if (graph != null) {
+			// the map itself comes from the tiles, with only the highlights drawn here
+			tiles.draw(g, getDrawingAreaDimension(), origin, scale);
+			graph.drawHighlights(g, getDrawingAreaDimension(), origin, scale);
+		}
 	}
 
 	@Override
 	protected void onClick(MouseEvent e) {
 		graph.unHighlight();
 		Location clicked = Location.newFromPoint(e.getPoint(), origin, scale);
-		// find the closest node.
-		double bestDist = Double.MAX_VALUE;
-		Node closest = null;
-
-		for (Node node : graph.nodes.values()) {
-			double distance = clicked.distance(node.location);
-			if (distance < bestDist) {
-				bestDist = distance;
-				closest = node;
-			}
-		}
-
-		if (closest == null) { return; }
-
-		// if it's close enough, highlight it and show some information.
-		if (clicked.distance(closest.location) < MAX_CLICKED_DISTANCE) {
+		// find the closest node, if there's one close enough, and otherwise the closest road.
+		int closestIndex = graph.nodeGrid.nearest(clicked.x, clicked.y, MAX_CLICKED_DISTANCE);
+		Snap point;
+		String label;
+		if (closestIndex >= 0) {
+			Node closest = graph.routing.getNode(closestIndex);
 			graph.addHighlightedNode(closest);
 			getTextOutputArea().setText(closest.toString());
+			point = Snap.atNode(graph.routing, closestIndex);
+			label = String.valueOf(closest.nodeID);
+		} else {
+			point = graph.segmentGrid.snap(clicked.x, clicked.y, MAX_SNAP_DISTANCE);
+			if (point == null) { return; }
+			graph.addHighlightedSegment(point.segment);
+			getTextOutputArea().setText(point.toString());
+			label = point.toString();
+		}
 
-			if (SwingUtilities.isRightMouseButton(e)) {
-				JPopupMenu context = new JPopupMenu();
-				JMenuItem startItem = new JMenuItem("Make start"), endItem = new JMenuItem("Make end");
-
-				Node finalClosest = closest; // BC how Java handles variables in lambdas
-				startItem.addActionListener(e1 -> {
-					start = finalClosest;
-					startValue.setText(String.valueOf(start.nodeID));
-				});
-				endItem.addActionListener(e1 -> {
-					end = finalClosest;
-					endValue.setText(String.valueOf(end.nodeID));
-				});
-
-				context.add(startItem);
-				context.add(endItem);
-				context.show(e.getComponent(), e.getX(), e.getY());
-			}
+		// a node on its own can't be routed from, so only offer ones that join a road
+		if (point != null && SwingUtilities.isRightMouseButton(e)) {
+			JPopupMenu context = new JPopupMenu();
+			JMenuItem startItem = new JMenuItem("Make start"), endItem = new JMenuItem("Make end");
+
+			startItem.addActionListener(e1 -> {
+				start = point;
+				startValue.setText(label);
+			});
+			endItem.addActionListener(e1 -> {
+				end = point;
+				endValue.setText(label);
+			});
+
+			context.add(startItem);
+			context.add(endItem);
+			context.show(e.getComponent(), e.getX(), e.getY());
 		}
 	}
 
@@ -144,6 +156,17 @@ public class  Mapper extends GUI {
 	@Override
 	protected void onLoad(File nodes, File roads, File segments, File polygons, File restrictions) {
 		graph = new Graph(nodes, roads, segments, polygons, restrictions);
+		if (tiles != null)
+			tiles.shutdown();
+		tiles = new TileRenderer(graph, this::redraw);
+		search = new AStar(graph.routing);
+
+		File directory = nodes.getParentFile();
+		RoutingGraph routing = graph.routing;
+		graph.loadHierarchies(new File(directory, DISTANCE_HIERARCHY_FILENAME),
+				new File(directory, TIME_HIERARCHY_FILENAME), this::showMessage, nodes, roads, segments);
+		distanceLandmarks = CompletableFuture.supplyAsync(() -> new Landmarks(routing, true, Landmarks.DEFAULT_COUNT));
+		timeLandmarks = CompletableFuture.supplyAsync(() -> new Landmarks(routing, false, Landmarks.DEFAULT_COUNT));
 		origin = new Location(-250, 250); // close enough
 		scale = 1;
 	}
@@ -219,63 +242,53 @@ public class  Mapper extends GUI {
 		getTextOutputArea().setText("Right click to select nodes to search from");
 	}
 
-	private Step aStar(Node start, Node end) {
-		LinkedList<Step> open = new LinkedList<>(), closed = new LinkedList<>();
-		open.add(new Step(start, end));
-
-		while (open.size() > 0) {
-			Step current = open.stream().min(Comparator.comparingDouble(Step::getF)).get();
-
-			if (current.current == end) {
-				return current;
-			}
-
-			for(Node n : current.current.getNeighbors()) {
-				// Skip node if coming from restricted turn or is one way
-				if (n.equals(current.current.restrictedNodes.get(current.parent))
-				 	|| n.getConnecting(current.current).size() == 0) { continue; }
-
-				Step nextStep = new Step(n, current, end, isDistance);
-
-				// Comparator is overridden, so only looks for Step objects with the same current node
-				if (!open.contains(nextStep)) {
-					if (!closed.contains(nextStep)) {
-						open.add(nextStep);
-					} else if (closed.get(closed.indexOf(nextStep)).g > nextStep.g) {
-						closed.remove(nextStep);
-						open.add(nextStep);
-					}
-				} else if (open.get(open.indexOf(nextStep)).g > nextStep.g) {
-					open.set(open.indexOf(nextStep), nextStep);
-				}
-			}
-
-			closed.add(current);
-			open.remove(current);
-
+	private void listRoute(Snap start, Snap end) {
+		if (start == null || end == null) {
+			getTextOutputArea().setText("Right click to select nodes to search from");
+			return;
 		}
 
-		return null;
-	}
-
-	private void listRoute(Node start, Node end) {
-//		StringBuilder directions = new StringBuilder();
-		LinkedList<String> directions = new LinkedList<>();
+		ArrayList<String> directions = new ArrayList<>();
 		Road latestRoad = null;
 		double totalDist = 0, roadDist = 0, totalTime = 0, roadTime = 0;
 
 		graph.unHighlight();
-		Step curr = aStar(start, end);
+		long startTime = System.nanoTime();
+		// the hierarchies don't know about turn restrictions or points part way along segments, so
+		// fall back to the turn aware A* for those, or if their route breaks a restriction, which a
+		// shortest route only does at the few nodes that have them
+		int from = start.node(), to = end.node();
+		ContractionHierarchy hierarchy = from >= 0 && to >= 0 ? readyHierarchy() : null;
+		int[] route = hierarchy == null ? null : hierarchy.findPath(from, to);
+		int settled = hierarchy == null ? 0 : hierarchy.getSettledCount();
+		if (hierarchy == null || (route != null && !obeysRestrictions(route))) {
+			route = search.findPath(start, end, isDistance, ready(isDistance ? distanceLandmarks : timeLandmarks));
+			settled = search.getSettledCount();
+		}
+		double millis = (System.nanoTime() - startTime) / 1e6;
 
-		if (curr == null) {
+		if (route == null) {
 			System.err.println("A* failed on nodes \n" + start + "\n\n\tand\n\n" + end);
 			return;
 		}
 
-		while (curr.parent != null) {
-			if (curr.toParent.road.equals(latestRoad)) {
-				roadDist += curr.toParent.length;
-				roadTime += roadDist / curr.toParent.road.speed;
+		// User selected 1 length trip
+		if (route.length == 0) { return; }
+
+		if (from >= 0)
+			graph.addHighlightedNode(graph.routing.getNode(from));
+		for (int i = 0; i < route.length; i++) {
+			int edge = route[i];
+			Segment segment = graph.routing.getSegment(edge);
+
+			// the first and last edges may only be covered from or up to a point along them
+			double begins = i == 0 && from < 0 ? start.before(graph.routing, edge) : 0;
+			double ends = i == route.length - 1 && to < 0 ? end.before(graph.routing, edge) : 1;
+			double length = segment.length * (ends - begins);
+
+			if (segment.road.equals(latestRoad)) {
+				roadDist += length;
+				roadTime += length / segment.road.speed;
 			} else {
 				if (latestRoad != null) {
 					totalDist += roadDist;
@@ -285,21 +298,16 @@ public class  Mapper extends GUI {
 							+ formatTime(roadTime) + "\n");
 				}
 
-				latestRoad = curr.toParent.road;
-				roadDist = curr.toParent.length;
-				roadTime = roadDist / curr.toParent.road.speed;
-
+				latestRoad = segment.road;
+				roadDist = length;
+				roadTime = roadDist / segment.road.speed;
 			}
-			graph.addHighlightedSegment(curr.toParent);
-			graph.addHighlightedNode(curr.current);
-			curr = curr.parent;
+			graph.addHighlightedSegment(segment);
+			if (ends == 1)
+				graph.addHighlightedNode(graph.routing.getNode(graph.routing.target(edge)));
 		}
 
-		// User selected 1 length trip
-		if (latestRoad == null) { return; }
-
 		// Print last step
-		graph.addHighlightedNode(curr.current);
 		directions.add(latestRoad.name
 				+ ": " + String.format("%.2f", roadDist) + "km, "
 				+ formatTime(roadTime) + "\n");
@@ -309,17 +317,57 @@ public class  Mapper extends GUI {
 		totalTime += roadTime;
 
 		getTextOutputArea().setText("");
-		for (int i = directions.size() - 1; i > -1; --i) {
-			getTextOutputArea().append(directions.get(i));
+		for (String direction : directions) {
+			getTextOutputArea().append(direction);
 		}
 
 		getTextOutputArea().append("\nTotal distance = " + String.format("%.2f", totalDist)
 				+ "km, Total time = " + formatTime(totalTime));
+		getTextOutputArea().append(String.format("\nFound in %.2fms, %d nodes searched", millis, settled));
 
 		redraw();
 
 	}
 
+	/**
+	 * @return the contraction hierarchy for the current metric, or null if it
+	 *         isn't ready yet.
+	 */
+	private ContractionHierarchy readyHierarchy() {
+		return ready(graph.hierarchy(isDistance));
+	}
+
+	/**
+	 * Adds a line to the text area from any thread, for background work to
+	 * report through.
+	 */
+	private void showMessage(String message) {
+		SwingUtilities.invokeLater(() -> getTextOutputArea().append(message + "\n"));
+	}
+
+	/**
+	 * @return the result of something built in the background, or null if it
+	 *         isn't ready yet or failed.
+	 */
+	private static <T> T ready(CompletableFuture<T> future) {
+		if (future == null || !future.isDone() || future.isCompletedExceptionally())
+			return null;
+		return future.join();
+	}
+
+	/**
+	 * @return false if the route makes a restricted turn or a U-turn, which
+	 *         A* would have to weigh.
+	 */
+	private boolean obeysRestrictions(int[] route) {
+		for (int i = 1; i < route.length; i++) {
+			if (!graph.routing.isTurnAllowed(route[i - 1], route[i])
+					|| graph.routing.turnCost(route[i - 1], route[i], isDistance) > 0)
+				return false;
+		}
+		return true;
+	}
+
 	private static String formatTime(double hours) {
 		int hoursValue = (int) hours;
 		int minutesValue = (int) (hours * 60 % 60);
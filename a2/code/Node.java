@@ -1,8 +1,6 @@
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Point;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Node represents an intersection in the road graph. It stores its ID and its
@@ -16,12 +14,17 @@ public class Node {
 	public final int nodeID;
 	public final Location location;
 	public final Collection<Segment> segments;
-	public final HashMap<Node, Node> restrictedNodes = new HashMap<>();
+	// the turns banned at this node, which most nodes have none of
+	public final List<Restriction> restrictions = new ArrayList<>(0);
+	// position in the RoutingGraph's arrays
+	private int index;
 
 	public Node(int nodeID, double lat, double lon) {
 		this.nodeID = nodeID;
 		this.location = Location.newFromLatLon(lat, lon);
-		this.segments = new HashSet<>();
+		// most intersections join only a few segments, so a small list is far
+		// lighter than a set
+		this.segments = new ArrayList<>(4);
 	}
 
 	public void addSegment(Segment seg) {
@@ -29,18 +32,33 @@ public class Node {
 	}
 
 	public void draw(Graphics g, Dimension area, Location origin, double scale) {
-		Point p = location.asPoint(origin, scale);
+		int x = Location.screenX(location.x, origin, scale), y = Location.screenY(location.y, origin, scale);
+		int size = size(scale);
 
 		// for efficiency, don't render nodes that are off-screen.
-		if (p.x < 0 || p.x > area.width || p.y < 0 || p.y > area.height)
+		if (x < -size || x > area.width + size || y < -size || y > area.height + size)
 			return;
 
-		int size = (int) (Mapper.NODE_GRADIENT * Math.log(scale) + Mapper.NODE_INTERCEPT);
-		g.fillRect(p.x - size / 2, p.y - size / 2, size, size);
+		g.fillRect(x - size / 2, y - size / 2, size, size);
 	}
 
-	public void addRestriction(Node start, Node end) {
-		restrictedNodes.put(start, end);
+	/**
+	 * @return how many pixels across a node is drawn at the scale.
+	 */
+	public static int size(double scale) {
+		return (int) (Mapper.NODE_GRADIENT * Math.log(scale) + Mapper.NODE_INTERCEPT);
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public void addRestriction(Restriction restriction) {
+		restrictions.add(restriction);
 	}
 
 	public String toString() {
@@ -56,27 +74,6 @@ public class Node {
 		return str.substring(0, str.length() - 2);
 	}
 
-	public List<Node> getNeighbors() {
-		LinkedList<Node> nodes = new LinkedList<>();
-
-		for (Segment s : segments) {
-			if (s.start == this) {
-				nodes.add(s.end);
-			} else if (s.end == this) {
-				nodes.add(s.start);
-			}
-		}
-
-		return nodes;
-	}
-
-	public List<Segment> getConnecting(Node other) {
-		return segments.stream()
-				.filter(x -> (x.start == this && x.end == other && !x.road.isOneway)
-						  || (x.start == other && x.end == this))
-				.collect(Collectors.toList());
-	}
-
 	@Override
 	public boolean equals(Object o) {
 		return o instanceof Node && ((Node) o).nodeID == nodeID;
@@ -0,0 +1,169 @@
+import java.util.Arrays;
+
+/**
+ * A static uniform grid over the node locations of a RoutingGraph, for finding
+ * the nodes near a point without looking at every node.
+ *
+ * The cells are square and sized so that each holds a couple of nodes on
+ * average. The nodes are sorted by cell, so each cell is the run of entries
+ * cellOffsets[c] up to cellOffsets[c + 1], and their coordinates are copied
+ * into the same order so a query reads them straight through. Points outside
+ * the grid are looked up from the nearest edge cell.
+ */
+public class NodeGrid {
+	private static final int NODES_PER_CELL = 2;
+
+	private final double minX, minY, cellSize;
+	private final int columns, rows;
+	private final int[] cellOffsets, cellNodes;
+	private final double[] cellXs, cellYs;
+
+	public NodeGrid(RoutingGraph graph) {
+		int n = graph.nodeCount();
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int v = 0; v < n; v++) {
+			minX = Math.min(minX, graph.getX(v));
+			minY = Math.min(minY, graph.getY(v));
+			maxX = Math.max(maxX, graph.getX(v));
+			maxY = Math.max(maxY, graph.getY(v));
+		}
+		if (n == 0)
+			minX = minY = maxX = maxY = 0;
+		this.minX = minX;
+		this.minY = minY;
+
+		// the area based size suits a spread of nodes, the length based one a line of them
+		double width = maxX - minX, height = maxY - minY;
+		double size = Math.max(Math.sqrt(width * height * NODES_PER_CELL / Math.max(n, 1)),
+				Math.max(width, height) * NODES_PER_CELL / Math.max(n, 1));
+		cellSize = size > 0 ? size : 1;
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		// counting sort of the nodes by cell
+		int[] cells = new int[n];
+		cellOffsets = new int[columns * rows + 1];
+		for (int v = 0; v < n; v++) {
+			cells[v] = row(graph.getY(v)) * columns + column(graph.getX(v));
+			cellOffsets[cells[v] + 1]++;
+		}
+		for (int c = 0; c < columns * rows; c++)
+			cellOffsets[c + 1] += cellOffsets[c];
+
+		cellNodes = new int[n];
+		cellXs = new double[n];
+		cellYs = new double[n];
+		int[] next = Arrays.copyOf(cellOffsets, columns * rows);
+		for (int v = 0; v < n; v++) {
+			int k = next[cells[v]]++;
+			cellNodes[k] = v;
+			cellXs[k] = graph.getX(v);
+			cellYs[k] = graph.getY(v);
+		}
+	}
+
+	/**
+	 * @return the index of the node closest to the point, or -1 if there are
+	 *         no nodes.
+	 */
+	public int nearest(double x, double y) {
+		return nearest(x, y, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return the index of the node closest to the point, or -1 if none is
+	 *         within maxDistance of it.
+	 */
+	public int nearest(double x, double y, double maxDistance) {
+		int cx = column(x), cy = row(y);
+		int best = -1;
+		double bestSquared = maxDistance * maxDistance;
+
+		// search outwards a ring of cells at a time, until no node in the next
+		// ring could be closer than the best so far
+		for (int ring = 0; ring <= Math.max(columns, rows); ring++) {
+			double gap = (ring - 1) * cellSize;
+			if (ring > 0 && gap * gap > bestSquared)
+				break;
+
+			for (int r = Math.max(cy - ring, 0); r <= Math.min(cy + ring, rows - 1); r++) {
+				// rows inside the ring only have the cells at its two sides
+				boolean edgeRow = r == cy - ring || r == cy + ring;
+				int step = edgeRow ? 1 : 2 * ring;
+				for (int c = cx - ring; c <= cx + ring; c += step) {
+					if (c < 0 || c >= columns)
+						continue;
+					int cell = r * columns + c;
+					for (int k = cellOffsets[cell]; k < cellOffsets[cell + 1]; k++) {
+						double dx = cellXs[k] - x, dy = cellYs[k] - y;
+						double squared = dx * dx + dy * dy;
+						if (squared <= bestSquared) {
+							bestSquared = squared;
+							best = cellNodes[k];
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the indices of all the nodes within radius of the point, in no
+	 *         particular order.
+	 */
+	public int[] withinRadius(double x, double y, double radius) {
+		int[] found = new int[16];
+		int count = 0;
+		double squaredRadius = radius * radius;
+
+		int lastRow = row(y + radius), lastColumn = column(x + radius);
+		for (int r = row(y - radius); r <= lastRow; r++) {
+			for (int c = column(x - radius); c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				for (int k = cellOffsets[cell]; k < cellOffsets[cell + 1]; k++) {
+					double dx = cellXs[k] - x, dy = cellYs[k] - y;
+					if (dx * dx + dy * dy > squaredRadius)
+						continue;
+					if (count == found.length)
+						found = Arrays.copyOf(found, count * 2);
+					found[count++] = cellNodes[k];
+				}
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * @return the indices of all the nodes inside the box, in no particular
+	 *         order.
+	 */
+	public int[] withinBox(double minX, double minY, double maxX, double maxY) {
+		int[] found = new int[16];
+		int count = 0;
+
+		int lastRow = row(maxY), lastColumn = column(maxX);
+		for (int r = row(minY); r <= lastRow; r++) {
+			for (int c = column(minX); c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				for (int k = cellOffsets[cell]; k < cellOffsets[cell + 1]; k++) {
+					if (cellXs[k] < minX || cellXs[k] > maxX || cellYs[k] < minY || cellYs[k] > maxY)
+						continue;
+					if (count == found.length)
+						found = Arrays.copyOf(found, count * 2);
+					found[count++] = cellNodes[k];
+				}
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	private int column(double x) {
+		return Math.min(Math.max((int) Math.floor((x - minX) / cellSize), 0), columns - 1);
+	}
+
+	private int row(double y) {
+		return Math.min(Math.max((int) Math.floor((y - minY) / cellSize), 0), rows - 1);
+	}
+}
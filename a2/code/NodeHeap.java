@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+/**
+ * A binary min heap of node indices keyed by doubles, which also tracks where
+ * each node sits in the heap so its key can be changed in place. Every node in
+ * the graph has a slot, so a node is either in the heap once or not at all.
+ */
+public class NodeHeap {
+	private final int[] heap, position;
+	private final double[] keys;
+	private int size;
+
+	private static final int ABSENT = -1;
+
+	public NodeHeap(int nodeCount) {
+		heap = new int[nodeCount];
+		position = new int[nodeCount];
+		keys = new double[nodeCount];
+		Arrays.fill(position, ABSENT);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int node) {
+		return position[node] != ABSENT;
+	}
+
+	/**
+	 * @return the smallest key in the heap, which must not be empty.
+	 */
+	public double peekKey() {
+		return keys[heap[0]];
+	}
+
+	public double getKey(int node) {
+		return keys[node];
+	}
+
+	/**
+	 * Adds the node with the given key, or moves it to the new key if it is
+	 * already in the heap.
+	 */
+	public void update(int node, double key) {
+		if (position[node] == ABSENT) {
+			keys[node] = key;
+			heap[size] = node;
+			position[node] = size;
+			siftUp(size++);
+		} else if (key < keys[node]) {
+			keys[node] = key;
+			siftUp(position[node]);
+		} else {
+			keys[node] = key;
+			siftDown(position[node]);
+		}
+	}
+
+	/**
+	 * Removes and returns the node with the smallest key.
+	 */
+	public int pop() {
+		int top = heap[0];
+		position[top] = ABSENT;
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Empties the heap, in time proportional to what was left in it.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			position[heap[i]] = ABSENT;
+		size = 0;
+	}
+
+	private void siftUp(int i) {
+		int node = heap[i];
+		while (i > 0) {
+			int up = (i - 1) >>> 1;
+			if (keys[heap[up]] <= keys[node])
+				break;
+			heap[i] = heap[up];
+			position[heap[i]] = i;
+			i = up;
+		}
+		heap[i] = node;
+		position[node] = i;
+	}
+
+	private void siftDown(int i) {
+		int node = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]])
+				child++;
+			if (keys[node] <= keys[heap[child]])
+				break;
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = node;
+		position[node] = i;
+	}
+}
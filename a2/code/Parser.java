@@ -130,7 +130,9 @@ public class Parser {
 			while((line = br.readLine()) != null) {
 				String[] tokens = line.split("[\t]+");
 
-				graph.nodes.get(asInt(tokens[2])).addRestriction(graph.nodes.get(asInt(tokens[0])), graph.nodes.get(asInt(tokens[4])));
+				Node via = graph.nodes.get(asInt(tokens[2]));
+				via.addRestriction(new Restriction(graph.nodes.get(asInt(tokens[0])), graph.roads.get(asInt(tokens[1])),
+						via, graph.roads.get(asInt(tokens[3])), graph.nodes.get(asInt(tokens[4]))));
 
 			}
 		} catch (IOException e) {
@@ -0,0 +1,70 @@
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of screen coordinates for drawing polylines, so that
+ * drawing a frame transforms points straight from flat coordinate arrays into
+ * int arrays and hands each whole polyline to drawPolyline, rather than making
+ * a Point for every vertex and drawing one line at a time.
+ *
+ * The arrays only grow, to the longest polyline drawn so far, so once a few
+ * frames have been drawn a frame allocates nothing. A buffer holds one
+ * polyline at a time and isn't safe to share between threads; each thread
+ * drawing should have its own.
+ */
+public class PolylineBuffer {
+	private int[] xs = new int[64], ys = new int[64];
+	private int size;
+
+	/**
+	 * Fills the buffer with the screen positions of points from up to to of
+	 * the coordinate arrays, at the given origin and scale.
+	 */
+	public void transform(double[] pointXs, double[] pointYs, int from, int to, Location origin, double scale) {
+		size = 0;
+		reserve(to - from);
+		for (int i = from; i < to; i++) {
+			xs[size] = Location.screenX(pointXs[i], origin, scale);
+			ys[size++] = Location.screenY(pointYs[i], origin, scale);
+		}
+	}
+
+	/**
+	 * Fills the buffer with the screen positions of a segment's polyline, as
+	 * the RoutingGraph keeps it.
+	 */
+	public void transform(RoutingGraph graph, int segment, Location origin, double scale) {
+		int from = graph.firstPoint(segment), to = graph.lastPoint(segment);
+		size = 0;
+		reserve(to - from);
+		for (int i = from; i < to; i++) {
+			xs[size] = Location.screenX(graph.pointX(i), origin, scale);
+			ys[size++] = Location.screenY(graph.pointY(i), origin, scale);
+		}
+	}
+
+	/**
+	 * Draws the polyline in the buffer, if it has at least one line in it.
+	 */
+	public void draw(Graphics g) {
+		// drawPolyline costs more to set up than drawLine, which is quicker for a single line
+		if (size == 2)
+			g.drawLine(xs[0], ys[0], xs[1], ys[1]);
+		else if (size > 2)
+			g.drawPolyline(xs, ys, size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Helper Methods **/
+
+	private void reserve(int capacity) {
+		if (capacity > xs.length) {
+			int length = Math.max(capacity, 2 * xs.length);
+			xs = Arrays.copyOf(xs, length);
+			ys = Arrays.copyOf(ys, length);
+		}
+	}
+}
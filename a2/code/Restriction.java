@@ -0,0 +1,33 @@
+/**
+ * A banned turn from restrictions.tab: arriving at the via node from the from
+ * node along fromRoad, a route may not carry on to the to node along toRoad.
+ * Either road may be null if the file names one that isn't in the data, and
+ * then any road between those nodes matches.
+ */
+public class Restriction {
+	public final Node from, via, to;
+	public final Road fromRoad, toRoad;
+
+	public Restriction(Node from, Road fromRoad, Node via, Road toRoad, Node to) {
+		this.from = from;
+		this.fromRoad = fromRoad;
+		this.via = via;
+		this.toRoad = toRoad;
+		this.to = to;
+	}
+
+	/**
+	 * @return true if the turn from the first segment onto the second is
+	 *         this one, given the nodes at each end of the turn.
+	 */
+	public boolean matches(Node first, Segment into, Node last, Segment out) {
+		return first == from && last == to
+				&& (fromRoad == null || into.road.roadID == fromRoad.roadID)
+				&& (toRoad == null || out.road.roadID == toRoad.roadID);
+	}
+
+	@Override
+	public String toString() {
+		return from.nodeID + " -> " + via.nodeID + " -> " + to.nodeID;
+	}
+}
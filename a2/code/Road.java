@@ -46,7 +46,7 @@ public class Road {
 	 *    3 = Principal HW
 	 *    4 = Major HW
 	 */
-	private enum RoadClass {RESIDENTIAL, COLLECTOR, ARTERIAL, PRINCIPAL_HW, MAJOR_HW}
+	public enum RoadClass {RESIDENTIAL, COLLECTOR, ARTERIAL, PRINCIPAL_HW, MAJOR_HW}
 
 	/*
 	 * speed
@@ -0,0 +1,278 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * Draws the road segments of a RoutingGraph, looking only at the ones in view
+ * and worth drawing at the current zoom, so the time a frame takes depends on
+ * what can be seen rather than on the size of the map.
+ *
+ * Three things keep the work down. The segments are listed in a uniform grid
+ * by their bounding boxes, so a frame only visits the cells on screen. Each
+ * road class has a scale below which it isn't drawn, and each cell lists its
+ * segments from the most important class down, so zoomed out a cell is left
+ * as soon as it reaches a hidden class, and a node is hidden along with the
+ * most important class of road it joins. And every polyline is simplified with
+ * the Douglas-Peucker algorithm once for each zoom band, to within about half
+ * a pixel at the band's lowest scale, so zoomed out a winding road is drawn
+ * with a handful of lines rather than every surveyed point. Bands double in
+ * scale, so a line is never more than a pixel out.
+ *
+ * A segment listed in several cells is drawn from the first of them that is
+ * in view, which needs no state between cells, so any number of threads can
+ * draw at once. Each thread draws through its own PolylineBuffer, one
+ * drawPolyline per segment, so drawing allocates nothing once warmed up.
+ */
+public class RoadRenderer {
+	// the scales, in pixels per kilometre, at which each zoom band starts
+	private static final double[] BAND_SCALES = { 1, 2, 4, 8, 16, 32, 64, 128 };
+	// how far a simplified polyline may stray from the real one, in pixels
+	private static final double TOLERANCE_PIXELS = 0.5;
+	// the scale below which each road class is hidden, from residential up
+	private static final double[] CLASS_MIN_SCALES = { 6, 2, 0, 0, 0 };
+	private static final int SEGMENTS_PER_CELL = 8;
+
+	private final int[] classes;
+	// the most important road class each node joins, so it is hidden along with its roads
+	private final int[] nodeClasses;
+	// each band's polylines, the points of segment s being bandOffsets[b][s] up to bandOffsets[b][s + 1]
+	private final int[][] bandOffsets;
+	private final double[][] bandXs, bandYs;
+
+	private final double minX, minY, cellSize;
+	private final int columns, rows;
+	private final int[] cellOffsets, cellSegments;
+	// the lowest row and column of the cells each segment is listed in
+	private final int[] firstRows, firstColumns;
+	private final ThreadLocal<PolylineBuffer> buffers = ThreadLocal.withInitial(PolylineBuffer::new);
+
+	public RoadRenderer(RoutingGraph graph) {
+		int n = graph.segmentCount();
+		classes = new int[n];
+		double[] boxes = new double[4 * n];
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < n; s++) {
+			Segment segment = graph.getSegmentAt(s);
+			classes[s] = segment.road.roadClass.ordinal();
+			double left = Double.POSITIVE_INFINITY, bottom = Double.POSITIVE_INFINITY;
+			double right = Double.NEGATIVE_INFINITY, top = Double.NEGATIVE_INFINITY;
+			for (Location point : segment.points) {
+				left = Math.min(left, point.x);
+				bottom = Math.min(bottom, point.y);
+				right = Math.max(right, point.x);
+				top = Math.max(top, point.y);
+			}
+			boxes[4 * s] = left;
+			boxes[4 * s + 1] = bottom;
+			boxes[4 * s + 2] = right;
+			boxes[4 * s + 3] = top;
+			if (segment.points.length > 0) {
+				minX = Math.min(minX, left);
+				minY = Math.min(minY, bottom);
+				maxX = Math.max(maxX, right);
+				maxY = Math.max(maxY, top);
+			}
+		}
+		if (minX > maxX)
+			minX = minY = maxX = maxY = 0;
+
+		// a node on no segments has nothing to be hidden with, so it is always drawn
+		nodeClasses = new int[graph.nodeCount()];
+		Arrays.fill(nodeClasses, -1);
+		for (int s = 0; s < n; s++) {
+			Segment segment = graph.getSegmentAt(s);
+			nodeClasses[segment.start.getIndex()] = Math.max(nodeClasses[segment.start.getIndex()], classes[s]);
+			nodeClasses[segment.end.getIndex()] = Math.max(nodeClasses[segment.end.getIndex()], classes[s]);
+		}
+		for (int v = 0; v < nodeClasses.length; v++) {
+			if (nodeClasses[v] < 0)
+				nodeClasses[v] = CLASS_MIN_SCALES.length - 1;
+		}
+
+		bandOffsets = new int[BAND_SCALES.length][];
+		bandXs = new double[BAND_SCALES.length][];
+		bandYs = new double[BAND_SCALES.length][];
+		for (int b = 0; b < BAND_SCALES.length; b++)
+			simplify(graph, b, TOLERANCE_PIXELS / BAND_SCALES[b]);
+
+		this.minX = minX;
+		this.minY = minY;
+		double width = maxX - minX, height = maxY - minY;
+		double size = Math.sqrt(width * height * SEGMENTS_PER_CELL / Math.max(n, 1));
+		cellSize = size > 0 ? size : Math.max(Math.max(width, height), 1);
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		// list each segment in the cells its box covers, most important classes first
+		Integer[] order = new Integer[n];
+		for (int s = 0; s < n; s++)
+			order[s] = s;
+		Arrays.sort(order, (a, b) -> classes[b] - classes[a]);
+
+		firstRows = new int[n];
+		firstColumns = new int[n];
+		cellOffsets = new int[columns * rows + 1];
+		for (int s = 0; s < n; s++) {
+			firstRows[s] = row(boxes[4 * s + 1]);
+			firstColumns[s] = column(boxes[4 * s]);
+			if (graph.getSegmentAt(s).points.length == 0)
+				continue;
+			for (int r = row(boxes[4 * s + 1]); r <= row(boxes[4 * s + 3]); r++) {
+				for (int c = column(boxes[4 * s]); c <= column(boxes[4 * s + 2]); c++)
+					cellOffsets[r * columns + c + 1]++;
+			}
+		}
+		for (int c = 0; c < columns * rows; c++)
+			cellOffsets[c + 1] += cellOffsets[c];
+
+		cellSegments = new int[cellOffsets[columns * rows]];
+		int[] next = Arrays.copyOf(cellOffsets, columns * rows);
+		for (int s : order) {
+			if (graph.getSegmentAt(s).points.length == 0)
+				continue;
+			for (int r = row(boxes[4 * s + 1]); r <= row(boxes[4 * s + 3]); r++) {
+				for (int c = column(boxes[4 * s]); c <= column(boxes[4 * s + 2]); c++)
+					cellSegments[next[r * columns + c]++] = s;
+			}
+		}
+	}
+
+	/**
+	 * Draws the segments that can be seen in the area, at the given origin and
+	 * scale, in the graphics' current colour.
+	 */
+	public void draw(Graphics g, Dimension area, Location origin, double scale) {
+		int band = 0;
+		while (band + 1 < BAND_SCALES.length && scale >= BAND_SCALES[band + 1])
+			band++;
+		int minClass = minClass(scale);
+
+		int[] offsets = bandOffsets[band];
+		double[] xs = bandXs[band], ys = bandYs[band];
+		PolylineBuffer buffer = buffers.get();
+		int firstColumn = column(origin.x), lastColumn = column(origin.x + area.width / scale);
+		int firstRow = row(origin.y - area.height / scale), lastRow = row(origin.y);
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstColumn; c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				for (int k = cellOffsets[cell]; k < cellOffsets[cell + 1]; k++) {
+					int s = cellSegments[k];
+					if (classes[s] < minClass)
+						break;
+					if (Math.max(firstRows[s], firstRow) != r || Math.max(firstColumns[s], firstColumn) != c)
+						continue;
+
+					buffer.transform(xs, ys, offsets[s], offsets[s + 1], origin, scale);
+					buffer.draw(g);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether the node, given by its index in the RoutingGraph, is
+	 *         drawn at the scale, which it is while any road it joins is.
+	 */
+	public boolean isNodeShown(int node, double scale) {
+		return nodeClasses[node] >= minClass(scale);
+	}
+
+	/**
+	 * @return the least important road class drawn at the scale.
+	 */
+	private static int minClass(double scale) {
+		int minClass = 0;
+		while (minClass < CLASS_MIN_SCALES.length && scale < CLASS_MIN_SCALES[minClass])
+			minClass++;
+		return minClass;
+	}
+
+	/**
+	 * Fills in the band's polylines, each simplified to within the tolerance
+	 * in kilometres.
+	 */
+	private void simplify(RoutingGraph graph, int band, double tolerance) {
+		int n = graph.segmentCount();
+		int[] offsets = new int[n + 1];
+		double[] xs = new double[16], ys = new double[16];
+		int size = 0;
+
+		for (int s = 0; s < n; s++) {
+			Location[] points = graph.getSegmentAt(s).points;
+			boolean[] keep = douglasPeucker(points, tolerance);
+			for (int i = 0; i < points.length; i++) {
+				if (!keep[i])
+					continue;
+				if (size == xs.length) {
+					xs = Arrays.copyOf(xs, size * 2);
+					ys = Arrays.copyOf(ys, size * 2);
+				}
+				xs[size] = points[i].x;
+				ys[size++] = points[i].y;
+			}
+			offsets[s + 1] = size;
+		}
+
+		bandOffsets[band] = offsets;
+		bandXs[band] = Arrays.copyOf(xs, size);
+		bandYs[band] = Arrays.copyOf(ys, size);
+	}
+
+	/**
+	 * @return which of the points to keep so that the polyline through them
+	 *         never strays more than the tolerance from the original. The
+	 *         ends are always kept.
+	 */
+	private static boolean[] douglasPeucker(Location[] points, double tolerance) {
+		boolean[] keep = new boolean[points.length];
+		if (points.length == 0)
+			return keep;
+		keep[0] = keep[points.length - 1] = true;
+
+		// spans still to check, as pairs of kept point indices
+		int[] stack = new int[2 * points.length];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = points.length - 1;
+		while (top > 0) {
+			int last = stack[--top], first = stack[--top];
+			int furthest = -1;
+			double furthestDistance = tolerance;
+			for (int i = first + 1; i < last; i++) {
+				double d = distanceToLine(points[i], points[first], points[last]);
+				if (d > furthestDistance) {
+					furthest = i;
+					furthestDistance = d;
+				}
+			}
+			if (furthest < 0)
+				continue;
+			keep[furthest] = true;
+			stack[top++] = first;
+			stack[top++] = furthest;
+			stack[top++] = furthest;
+			stack[top++] = last;
+		}
+		return keep;
+	}
+
+	/**
+	 * @return the distance from the point to the line piece from a to b.
+	 */
+	private static double distanceToLine(Location point, Location a, Location b) {
+		double dx = b.x - a.x, dy = b.y - a.y;
+		double squared = dx * dx + dy * dy;
+		double t = squared == 0 ? 0 : ((point.x - a.x) * dx + (point.y - a.y) * dy) / squared;
+		t = Math.min(Math.max(t, 0), 1);
+		return Math.hypot(a.x + t * dx - point.x, a.y + t * dy - point.y);
+	}
+
+	private int column(double x) {
+		return Math.min(Math.max((int) Math.floor((x - minX) / cellSize), 0), columns - 1);
+	}
+
+	private int row(double y) {
+		return Math.min(Math.max((int) Math.floor((y - minY) / cellSize), 0), rows - 1);
+	}
+}
@@ -0,0 +1,369 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * A primitive array view of the road graph for the routing algorithms to work
+ * on, built once from the Node and Segment objects, which stay as they are for
+ * drawing and the GUI.
+ *
+ * Nodes are renumbered densely from 0 in order of ID, segments in order of
+ * their end nodes' IDs, road and shape, and the directed edges
+ * leaving node i are edges offsets[i] up to (but not including) offsets[i +
+ * 1], stored in compressed sparse row form. Each edge has the index of the
+ * node it leads to, its length in kilometres, its travel time in hours and
+ * the index of the segment it came from. A two way segment gives an edge in
+ * each direction, and a one way segment only gives the edge from its start to
+ * its end. Node coordinates are kept in their own arrays, so a search touches
+ * nothing but ints and doubles laid out next to each other. The points of
+ * every segment's polyline are kept the same way, end to end in one pair of
+ * coordinate arrays, for drawing and for spatial indexes.
+ *
+ * That numbering only depends on the data, not on the order the collections
+ * happen to hand things over in, so edge indices are the same every time the
+ * same map is loaded and can be saved to files. The fingerprint hashes the
+ * numbering, so a file saved for a different graph can be told apart.
+ *
+ * The edges coming into each node are indexed the same way, as the edges
+ * inOffsets[i] up to inOffsets[i + 1] of inEdges, for searches that run
+ * backwards from a destination.
+ *
+ * Turn restrictions are compiled down to the pairs of edges they ban, each
+ * packed into a long as (in << 32 | out) and kept in one sorted array, with a
+ * flag per node saying whether any turn there is banned at all. A search
+ * whose states are edges rather than nodes can then ask whether a turn is
+ * allowed, and what it costs, without touching any objects.
+ */
+public class RoutingGraph {
+	private final Node[] nodes;
+	private final Segment[] segments;
+	private final double[] xs, ys;
+
+	private final int[] offsets, targets, edgeSegments;
+	private final int[] sources, inOffsets, inEdges;
+	// the edge along each segment from its start to its end, and back, or -1
+	private final int[] forwardEdges, backwardEdges;
+	private final double[] lengths, times;
+	// the points of segment s are pointOffsets[s] up to pointOffsets[s + 1]
+	private final int[] pointOffsets;
+	private final double[] pointXs, pointYs;
+	private final long[] bannedTurns;
+	private final boolean[] restricted;
+	private final long fingerprint;
+
+	// turning back along the segment you came in on, in hours
+	public static final double U_TURN_PENALTY = 30.0 / 3600;
+
+	public RoutingGraph(Collection<Node> nodeCollection, Collection<Segment> segmentCollection) {
+		nodes = nodeCollection.toArray(new Node[0]);
+		Arrays.sort(nodes, Comparator.comparingInt(n -> n.nodeID));
+		xs = new double[nodes.length];
+		ys = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].setIndex(i);
+			xs[i] = nodes[i].location.x;
+			ys[i] = nodes[i].location.y;
+		}
+
+		segments = segmentCollection.toArray(new Segment[0]);
+		Arrays.sort(segments, Comparator.<Segment> comparingInt(s -> s.start.nodeID)
+				.thenComparingInt(s -> s.end.nodeID).thenComparingInt(s -> s.road.roadID)
+				.thenComparingDouble(s -> s.length).thenComparing(RoutingGraph::comparePoints));
+		pointOffsets = new int[segments.length + 1];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i].setIndex(i);
+			pointOffsets[i + 1] = pointOffsets[i] + segments[i].points.length;
+		}
+		pointXs = new double[pointOffsets[segments.length]];
+		pointYs = new double[pointOffsets[segments.length]];
+		for (int i = 0; i < segments.length; i++) {
+			Location[] points = segments[i].points;
+			for (int k = 0; k < points.length; k++) {
+				pointXs[pointOffsets[i] + k] = points[k].x;
+				pointYs[pointOffsets[i] + k] = points[k].y;
+			}
+		}
+
+		// count the edges leaving each node, then place them with a counting sort
+		offsets = new int[nodes.length + 1];
+		for (Segment s : segments) {
+			offsets[s.start.getIndex() + 1]++;
+			if (!s.road.isOneway)
+				offsets[s.end.getIndex() + 1]++;
+		}
+		for (int i = 0; i < nodes.length; i++)
+			offsets[i + 1] += offsets[i];
+
+		int edgeCount = offsets[nodes.length];
+		targets = new int[edgeCount];
+		edgeSegments = new int[edgeCount];
+		lengths = new double[edgeCount];
+		times = new double[edgeCount];
+		sources = new int[edgeCount];
+		forwardEdges = new int[segments.length];
+		backwardEdges = new int[segments.length];
+		Arrays.fill(backwardEdges, -1);
+
+		int[] next = Arrays.copyOf(offsets, nodes.length);
+		for (int i = 0; i < segments.length; i++) {
+			Segment s = segments[i];
+			forwardEdges[i] = addEdge(next, s.start.getIndex(), s.end.getIndex(), i);
+			if (!s.road.isOneway)
+				backwardEdges[i] = addEdge(next, s.end.getIndex(), s.start.getIndex(), i);
+		}
+
+		// the same edges again, grouped by the node they lead to
+		inOffsets = new int[nodes.length + 1];
+		for (int e = 0; e < edgeCount; e++)
+			inOffsets[targets[e] + 1]++;
+		for (int i = 0; i < nodes.length; i++)
+			inOffsets[i + 1] += inOffsets[i];
+
+		inEdges = new int[edgeCount];
+		next = Arrays.copyOf(inOffsets, nodes.length);
+		for (int e = 0; e < edgeCount; e++)
+			inEdges[next[targets[e]]++] = e;
+
+		restricted = new boolean[nodes.length];
+		ArrayList<Long> banned = new ArrayList<>();
+		for (int v = 0; v < nodes.length; v++) {
+			if (nodes[v].restrictions.isEmpty())
+				continue;
+			for (int i = inOffsets[v]; i < inOffsets[v + 1]; i++) {
+				int in = inEdges[i];
+				for (int out = offsets[v]; out < offsets[v + 1]; out++) {
+					for (Restriction r : nodes[v].restrictions) {
+						if (r.matches(nodes[sources[in]], getSegment(in), nodes[targets[out]], getSegment(out))) {
+							banned.add(turnKey(in, out));
+							restricted[v] = true;
+							break;
+						}
+					}
+				}
+			}
+		}
+		bannedTurns = banned.stream().mapToLong(Long::longValue).sorted().toArray();
+
+		long hash = nodes.length;
+		for (Segment s : segments) {
+			hash = 31 * hash + s.start.nodeID;
+			hash = 31 * hash + s.end.nodeID;
+			hash = 31 * hash + s.road.roadID;
+			hash = 31 * hash + Double.doubleToLongBits(s.length);
+		}
+		for (int e = 0; e < edgeCount; e++)
+			hash = 31 * hash + ((long) targets[e] << 32 | edgeSegments[e]);
+		fingerprint = hash;
+	}
+
+	public int nodeCount() {
+		return nodes.length;
+	}
+
+	public int edgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * @return a hash of the nodes, segments and edges in their numbered order.
+	 */
+	public long fingerprint() {
+		return fingerprint;
+	}
+
+	public Node getNode(int node) {
+		return nodes[node];
+	}
+
+	public double getX(int node) {
+		return xs[node];
+	}
+
+	public double getY(int node) {
+		return ys[node];
+	}
+
+	/**
+	 * @return the first edge leaving the node.
+	 */
+	public int firstEdge(int node) {
+		return offsets[node];
+	}
+
+	/**
+	 * @return one past the last edge leaving the node.
+	 */
+	public int lastEdge(int node) {
+		return offsets[node + 1];
+	}
+
+	/**
+	 * @return the first edge into the node, as an index for inEdge.
+	 */
+	public int firstInEdge(int node) {
+		return inOffsets[node];
+	}
+
+	/**
+	 * @return one past the last edge into the node, as an index for inEdge.
+	 */
+	public int lastInEdge(int node) {
+		return inOffsets[node + 1];
+	}
+
+	/**
+	 * @return the edge at position i of the incoming edges.
+	 */
+	public int inEdge(int i) {
+		return inEdges[i];
+	}
+
+	public int source(int edge) {
+		return sources[edge];
+	}
+
+	public int target(int edge) {
+		return targets[edge];
+	}
+
+	public double length(int edge) {
+		return lengths[edge];
+	}
+
+	public double time(int edge) {
+		return times[edge];
+	}
+
+	/**
+	 * @return the edge's length if isDistance is true, and its travel time
+	 *         otherwise.
+	 */
+	public double weight(int edge, boolean isDistance) {
+		return isDistance ? lengths[edge] : times[edge];
+	}
+
+	/**
+	 * @return false if a restriction bans turning from the in edge onto the
+	 *         out edge, which must leave the node the in edge leads to.
+	 */
+	public boolean isTurnAllowed(int in, int out) {
+		return !restricted[targets[in]] || Arrays.binarySearch(bannedTurns, turnKey(in, out)) < 0;
+	}
+
+	/**
+	 * @return true if some turn at the node is banned.
+	 */
+	public boolean hasRestrictions(int node) {
+		return restricted[node];
+	}
+
+	/**
+	 * @return the extra cost of turning from the in edge onto the out edge,
+	 *         which is a penalty for turning back along the same segment when
+	 *         going by time and nothing otherwise.
+	 */
+	public double turnCost(int in, int out, boolean isDistance) {
+		if (isDistance || edgeSegments[in] != edgeSegments[out] || targets[out] != sources[in])
+			return 0;
+		return U_TURN_PENALTY;
+	}
+
+	/**
+	 * @return the number of turns banned by restrictions.
+	 */
+	public int bannedTurnCount() {
+		return bannedTurns.length;
+	}
+
+	public Segment getSegment(int edge) {
+		return segments[edgeSegments[edge]];
+	}
+
+	public int segmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * @return the segment at the given index, which edges refer to.
+	 */
+	public Segment getSegmentAt(int segment) {
+		return segments[segment];
+	}
+
+	/**
+	 * @return the index of the segment the edge runs along.
+	 */
+	public int segmentOf(int edge) {
+		return edgeSegments[edge];
+	}
+
+	/**
+	 * @return the edge along the segment from its start to its end if forward
+	 *         is true, or from its end to its start otherwise, or -1 if the
+	 *         segment is one way the other way.
+	 */
+	public int segmentEdge(int segment, boolean forward) {
+		return forward ? forwardEdges[segment] : backwardEdges[segment];
+	}
+
+	/**
+	 * @return the index of the segment's first polyline point.
+	 */
+	public int firstPoint(int segment) {
+		return pointOffsets[segment];
+	}
+
+	/**
+	 * @return one past the index of the segment's last polyline point.
+	 */
+	public int lastPoint(int segment) {
+		return pointOffsets[segment + 1];
+	}
+
+	public double pointX(int point) {
+		return pointXs[point];
+	}
+
+	public double pointY(int point) {
+		return pointYs[point];
+	}
+
+	/**
+	 * @return the straight line distance between two nodes, in kilometres.
+	 */
+	public double distance(int from, int to) {
+		double dx = xs[from] - xs[to], dy = ys[from] - ys[to];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private static long turnKey(int in, int out) {
+		return (long) in << 32 | out;
+	}
+
+	private int addEdge(int[] next, int from, int to, int segment) {
+		int edge = next[from]++;
+		Segment s = segments[segment];
+		sources[edge] = from;
+		targets[edge] = to;
+		edgeSegments[edge] = segment;
+		lengths[edge] = s.length;
+		times[edge] = s.length / s.road.speed;
+		return edge;
+	}
+
+	/**
+	 * Orders segments that match on everything else by their points, so that
+	 * only exact duplicates are left in no particular order.
+	 */
+	private static int comparePoints(Segment a, Segment b) {
+		for (int i = 0; i < Math.min(a.points.length, b.points.length); i++) {
+			int c = Double.compare(a.points[i].x, b.points[i].x);
+			if (c == 0)
+				c = Double.compare(a.points[i].y, b.points[i].y);
+			if (c != 0)
+				return c;
+		}
+		return Integer.compare(a.points.length, b.points.length);
+	}
+}
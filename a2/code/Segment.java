@@ -1,6 +1,3 @@
-import java.awt.Graphics;
-import java.awt.Point;
-
 /**
  * A Segment is the most interesting class making up our graph, and represents
  * an edge between two Nodes. It knows the Road it belongs to as well as the
@@ -15,6 +12,8 @@ public class Segment {
 	public final Node start, end;
 	public final double length;
 	public final Location[] points;
+	// position in the RoutingGraph's arrays
+	private int index;
 
 	public Segment(Graph graph, int roadID, double length, int node1ID,
 			int node2ID, double[] coords) {
@@ -35,12 +34,12 @@ public class Segment {
 		this.end.addSegment(this);
 	}
 
-	public void draw(Graphics g, Location origin, double scale) {
-		for (int i = 1; i < points.length; i++) {
-			Point p = points[i - 1].asPoint(origin, scale);
-			Point q = points[i].asPoint(origin, scale);
-			g.drawLine(p.x, p.y, q.x, q.y);
-		}
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
 	}
 
 	@Override
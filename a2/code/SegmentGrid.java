@@ -0,0 +1,175 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A static uniform grid over the polylines of a RoutingGraph's segments, for
+ * snapping a coordinate to the closest point on any road.
+ *
+ * Each polyline is split into its straight pieces, and a piece is listed in
+ * every cell its bounding box overlaps. The points are the RoutingGraph's own,
+ * so the grid only adds flat arrays of its pieces, each as the index of its
+ * first point and its segment, and of the cells, as runs of piece indices,
+ * cellOffsets[c] up to cellOffsets[c + 1]. Cells are sized so that each lists
+ * a few pieces on average.
+ */
+public class SegmentGrid {
+	private static final int PIECES_PER_CELL = 4;
+
+	private final RoutingGraph graph;
+	private final double minX, minY, cellSize;
+	private final int columns, rows;
+
+	private final int[] pieceSegments, piecePoints;
+	private final int[] cellOffsets, cellPieces;
+
+	public SegmentGrid(RoutingGraph graph) {
+		this.graph = graph;
+		int segmentCount = graph.segmentCount();
+
+		int pointCount = graph.lastPoint(segmentCount - 1);
+
+		// note which point starts each piece
+		int[] pieces = new int[pointCount];
+		int[] owners = new int[pointCount];
+		int pieceCount = 0;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < segmentCount; s++) {
+			for (int p = graph.firstPoint(s); p < graph.lastPoint(s); p++) {
+				minX = Math.min(minX, graph.pointX(p));
+				minY = Math.min(minY, graph.pointY(p));
+				maxX = Math.max(maxX, graph.pointX(p));
+				maxY = Math.max(maxY, graph.pointY(p));
+				if (p > graph.firstPoint(s)) {
+					pieces[pieceCount] = p - 1;
+					owners[pieceCount++] = s;
+				}
+			}
+		}
+		piecePoints = Arrays.copyOf(pieces, pieceCount);
+		pieceSegments = Arrays.copyOf(owners, pieceCount);
+
+		if (pointCount == 0)
+			minX = minY = maxX = maxY = 0;
+		this.minX = minX;
+		this.minY = minY;
+		double width = maxX - minX, height = maxY - minY;
+		double size = Math.sqrt(width * height * PIECES_PER_CELL / Math.max(pieceCount, 1));
+		cellSize = size > 0 ? size : Math.max(Math.max(width, height), 1);
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		// list each piece in the cells its bounding box covers, counting them first
+		cellOffsets = new int[columns * rows + 1];
+		for (int k = 0; k < pieceCount; k++)
+			forEachCell(k, cell -> cellOffsets[cell + 1]++);
+		for (int c = 0; c < columns * rows; c++)
+			cellOffsets[c + 1] += cellOffsets[c];
+
+		cellPieces = new int[cellOffsets[columns * rows]];
+		int[] next = Arrays.copyOf(cellOffsets, columns * rows);
+		for (int k = 0; k < pieceCount; k++) {
+			int piece = k;
+			forEachCell(k, cell -> cellPieces[next[cell]++] = piece);
+		}
+	}
+
+	/**
+	 * @return the closest point on any segment to the coordinate, or null if
+	 *         there are no segments.
+	 */
+	public Snap snap(double x, double y) {
+		return snap(x, y, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return the closest point on any segment to the coordinate, or null if
+	 *         none is within maxDistance of it.
+	 */
+	public Snap snap(double x, double y, double maxDistance) {
+		int cx = column(x), cy = row(y);
+		int best = -1;
+		double bestSquared = maxDistance * maxDistance, bestT = 0;
+
+		// search outwards a ring of cells at a time, until no piece in the next
+		// ring could be closer than the best so far
+		for (int ring = 0; ring <= Math.max(columns, rows); ring++) {
+			double gap = (ring - 1) * cellSize;
+			if (ring > 0 && gap * gap > bestSquared)
+				break;
+
+			for (int r = Math.max(cy - ring, 0); r <= Math.min(cy + ring, rows - 1); r++) {
+				// rows inside the ring only have the cells at its two sides
+				int step = r == cy - ring || r == cy + ring ? 1 : 2 * ring;
+				for (int c = cx - ring; c <= cx + ring; c += step) {
+					if (c < 0 || c >= columns)
+						continue;
+					int cell = r * columns + c;
+					for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+						int piece = cellPieces[i], a = piecePoints[piece];
+						double t = project(a, x, y);
+						double dx = graph.pointX(a) + t * (graph.pointX(a + 1) - graph.pointX(a)) - x;
+						double dy = graph.pointY(a) + t * (graph.pointY(a + 1) - graph.pointY(a)) - y;
+						double squared = dx * dx + dy * dy;
+						if (squared < bestSquared || squared == bestSquared && best < 0) {
+							bestSquared = squared;
+							best = piece;
+							bestT = t;
+						}
+					}
+				}
+			}
+		}
+
+		if (best < 0)
+			return null;
+		int a = piecePoints[best], segment = pieceSegments[best];
+		Location location = new Location(graph.pointX(a) + bestT * (graph.pointX(a + 1) - graph.pointX(a)),
+				graph.pointY(a) + bestT * (graph.pointY(a + 1) - graph.pointY(a)));
+
+		// how far along its segment the point is, as a fraction of the segment's polyline
+		double along = 0, length = 0;
+		for (int p = graph.firstPoint(segment) + 1; p < graph.lastPoint(segment); p++) {
+			double piece = Math.hypot(graph.pointX(p) - graph.pointX(p - 1), graph.pointY(p) - graph.pointY(p - 1));
+			if (p <= a)
+				along += piece;
+			else if (p == a + 1)
+				along += bestT * piece;
+			length += piece;
+		}
+		double fraction = length > 0 ? Math.min(along / length, 1) : 0;
+		return new Snap(segment, graph.getSegmentAt(segment), location, Math.sqrt(bestSquared), fraction);
+	}
+
+	/**
+	 * @return how far along the piece starting at point a the closest point
+	 *         to the coordinate is, from 0 to 1.
+	 */
+	private double project(int a, double x, double y) {
+		double dx = graph.pointX(a + 1) - graph.pointX(a), dy = graph.pointY(a + 1) - graph.pointY(a);
+		double squared = dx * dx + dy * dy;
+		if (squared == 0)
+			return 0;
+		double t = ((x - graph.pointX(a)) * dx + (y - graph.pointY(a)) * dy) / squared;
+		return Math.min(Math.max(t, 0), 1);
+	}
+
+	private void forEachCell(int piece, IntConsumer action) {
+		int a = piecePoints[piece];
+		int firstColumn = column(Math.min(graph.pointX(a), graph.pointX(a + 1)));
+		int lastColumn = column(Math.max(graph.pointX(a), graph.pointX(a + 1)));
+		int lastRow = row(Math.max(graph.pointY(a), graph.pointY(a + 1)));
+		for (int r = row(Math.min(graph.pointY(a), graph.pointY(a + 1))); r <= lastRow; r++) {
+			for (int c = firstColumn; c <= lastColumn; c++)
+				action.accept(r * columns + c);
+		}
+	}
+
+	private int column(double x) {
+		return Math.min(Math.max((int) Math.floor((x - minX) / cellSize), 0), columns - 1);
+	}
+
+	private int row(double y) {
+		return Math.min(Math.max((int) Math.floor((y - minY) / cellSize), 0), rows - 1);
+	}
+}
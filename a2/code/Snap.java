@@ -0,0 +1,66 @@
+/**
+ * A point on a road segment, such as where a coordinate snaps to the nearest
+ * road, given by the segment and how far along it the point is. Routes can
+ * start and end at a Snap, covering only part of the edges along its segment.
+ */
+public class Snap {
+	public final int segmentIndex;
+	public final Segment segment;
+	// the point on the segment, and how far it is from what was snapped to it
+	public final Location location;
+	public final double distance;
+	// how far along the segment the point is, from 0 at its start to 1 at its end
+	public final double fraction;
+
+	public Snap(int segmentIndex, Segment segment, Location location, double distance, double fraction) {
+		this.segmentIndex = segmentIndex;
+		this.segment = segment;
+		this.location = location;
+		this.distance = distance;
+		this.fraction = fraction;
+	}
+
+	/**
+	 * @return the point at the node, on one of the segments it joins, or null
+	 *         if it doesn't join any.
+	 */
+	public static Snap atNode(RoutingGraph graph, int node) {
+		int edge = graph.firstEdge(node) < graph.lastEdge(node) ? graph.firstEdge(node)
+				: graph.firstInEdge(node) < graph.lastInEdge(node) ? graph.inEdge(graph.firstInEdge(node)) : -1;
+		if (edge < 0)
+			return null;
+
+		int segment = graph.segmentOf(edge);
+		Segment s = graph.getSegmentAt(segment);
+		return new Snap(segment, s, graph.getNode(node).location, 0, s.start.getIndex() == node ? 0 : 1);
+	}
+
+	/**
+	 * @return the index of the node the point is at, or -1 if it is part way
+	 *         along its segment.
+	 */
+	public int node() {
+		return fraction == 0 ? segment.start.getIndex() : fraction == 1 ? segment.end.getIndex() : -1;
+	}
+
+	/**
+	 * @return how much of the edge, which must run along this segment, lies
+	 *         ahead of the point, from 0 to 1.
+	 */
+	public double after(RoutingGraph graph, int edge) {
+		return graph.segmentEdge(segmentIndex, true) == edge ? 1 - fraction : fraction;
+	}
+
+	/**
+	 * @return how much of the edge, which must run along this segment, lies
+	 *         behind the point, from 0 to 1.
+	 */
+	public double before(RoutingGraph graph, int edge) {
+		return 1 - after(graph, edge);
+	}
+
+	@Override
+	public String toString() {
+		return segment.road.name + String.format(" (%.0f%% along)", fraction * 100);
+	}
+}
@@ -0,0 +1,166 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+
+/**
+ * Draws the roads and nodes of a Graph from square image tiles, rendered by
+ * background threads and kept in a cache, so that panning just copies images
+ * that are already drawn and the Swing thread never draws the map itself.
+ *
+ * Tiles are laid on a grid of TILE_SIZE pixels anchored at the map's origin,
+ * one grid per scale, so the same tiles line up wherever the view moves. A
+ * tile that isn't in the cache yet is left blank and queued for the workers,
+ * and the window is repainted as each one arrives. Queued tiles for a scale
+ * or place that has since been left are skipped rather than drawn. The cache
+ * keeps the most recently used MAX_TILES tiles and drops the rest.
+ *
+ * Only the parts of the map that don't change are in the tiles; highlighting
+ * changes with every click, so it is drawn over the top separately.
+ */
+public class TileRenderer {
+	public static final int TILE_SIZE = 256;
+	// how many tiles to keep, at a quarter of a megabyte each
+	private static final int MAX_TILES = 192;
+
+	private final Graph graph;
+	private final Runnable onTileReady;
+	private final ExecutorService workers;
+	private final Map<Tile, BufferedImage> cache = new LinkedHashMap<Tile, BufferedImage>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Tile, BufferedImage> eldest) {
+			return size() > MAX_TILES;
+		}
+	};
+	private final Set<Tile> pending = ConcurrentHashMap.newKeySet();
+
+	// the tiles last drawn, which queued tiles are checked against
+	private volatile Tile lastFirst, lastLast;
+
+	/**
+	 * Makes a renderer for the graph, which calls onTileReady on the Swing
+	 * thread whenever a new tile is ready to draw.
+	 */
+	public TileRenderer(Graph graph, Runnable onTileReady) {
+		this.graph = graph;
+		this.onTileReady = onTileReady;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		workers = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "tile renderer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Draws the tiles covering the area at the given origin and scale, and
+	 * queues any that aren't ready yet.
+	 */
+	public void draw(Graphics g, Dimension area, Location origin, double scale) {
+		// the screen's top left corner, in pixels from the map's origin
+		long left = (long) Math.floor(origin.x * scale), top = (long) Math.floor(-origin.y * scale);
+		long zoom = Tile.zoomOf(scale);
+		Tile first = new Tile(zoom, Math.floorDiv(left, TILE_SIZE), Math.floorDiv(top, TILE_SIZE));
+		Tile last = new Tile(zoom, Math.floorDiv(left + area.width - 1, TILE_SIZE),
+				Math.floorDiv(top + area.height - 1, TILE_SIZE));
+		lastFirst = first;
+		lastLast = last;
+
+		for (long row = first.row; row <= last.row; row++) {
+			for (long column = first.column; column <= last.column; column++) {
+				Tile tile = new Tile(zoom, column, row);
+				BufferedImage image;
+				synchronized (cache) {
+					image = cache.get(tile);
+				}
+				if (image != null)
+					g.drawImage(image, (int) (column * TILE_SIZE - left), (int) (row * TILE_SIZE - top), null);
+				else if (pending.add(tile))
+					workers.execute(() -> render(tile, scale));
+			}
+		}
+	}
+
+	/**
+	 * Stops the workers, for when the renderer is replaced.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	private void render(Tile tile, double scale) {
+		if (!isWanted(tile)) {
+			// the view may have come back to the tile between the check and
+			// leaving pending, in which case draw saw it pending and didn't
+			// queue it again, so ask for another draw to do that
+			pending.remove(tile);
+			if (isWanted(tile))
+				SwingUtilities.invokeLater(onTileReady);
+			return;
+		}
+
+		try {
+			BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = image.createGraphics();
+			Location origin = new Location(tile.column * TILE_SIZE / scale, -tile.row * TILE_SIZE / scale);
+			graph.drawRoads(g, new Dimension(TILE_SIZE, TILE_SIZE), origin, scale);
+			g.dispose();
+
+			synchronized (cache) {
+				cache.put(tile, image);
+			}
+			SwingUtilities.invokeLater(onTileReady);
+		} finally {
+			pending.remove(tile);
+		}
+	}
+
+	/**
+	 * @return true if the tile was part of the last view drawn.
+	 */
+	private boolean isWanted(Tile tile) {
+		Tile first = lastFirst, last = lastLast;
+		return first != null && tile.zoom == first.zoom
+				&& tile.column >= first.column && tile.column <= last.column
+				&& tile.row >= first.row && tile.row <= last.row;
+	}
+
+	/**
+	 * A tile's place on the grid for a scale.
+	 */
+	private static class Tile {
+		final long zoom, column, row;
+
+		Tile(long zoom, long column, long row) {
+			this.zoom = zoom;
+			this.column = column;
+			this.row = row;
+		}
+
+		/**
+		 * @return the scale rounded a little, so that zooming in and back out
+		 *         again finds the same tiles despite rounding errors.
+		 */
+		static long zoomOf(double scale) {
+			return Math.round(scale * 1e6);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Tile && ((Tile) o).zoom == zoom && ((Tile) o).column == column
+					&& ((Tile) o).row == row;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(zoom * 31 * 31 + column * 31 + row);
+		}
+	}
+}